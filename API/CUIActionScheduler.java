@@ -0,0 +1,221 @@
+package com.jojodmo.customitems.api;
+
+import com.jojodmo.customitems.Main;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Runs deferrable custom item actions within a time budget per tick.
+ *
+ * Actions are queued per player, and the queues take turns running one action at a time, so one player firing a
+ * burst of actions can not hold up everyone else. Once the tick's budget is used up, the remaining actions are carried
+ * over to the next tick. At least one action runs every tick, so the queues always make progress.
+ *
+ * Using the scheduler is opt-in: only actions that are deferred with defer(...) go through it, and they run on the main
+ * thread. Actions may be deferred from any thread.
+ */
+public final class CUIActionScheduler{
+
+    private static final UUID SERVER = new UUID(0L, 0L);
+
+    private static volatile double budgetMillis = 5;
+    private static int maxQueuedPerPlayer = 1000;
+
+    // the queue of each player that has actions waiting, and the order the queues take turns in
+    private static final Map<UUID, ArrayDeque<Action>> queues = new HashMap<>();
+    private static final ArrayDeque<ArrayDeque<Action>> turns = new ArrayDeque<>();
+    private static int queued;
+    private static BukkitTask task;
+
+    private static final LongAdder executed = new LongAdder();
+    private static final LongAdder carriedOver = new LongAdder();
+    private static final LongAdder rejected = new LongAdder();
+    private static final CUIMetrics.Stats latency = new CUIMetrics.Stats();
+
+    private CUIActionScheduler(){}
+
+    /**
+     * Run an action that is not tied to a player within the tick budget
+     * @param action - the action to run on the main thread
+     * @return true iff the action was queued, or false if the queue is full
+     */
+    public static boolean defer(Runnable action){
+        return defer(SERVER, action);
+    }
+
+    /**
+     * Run an action for a player within the tick budget. Each player's actions run in the order they were deferred
+     * @param player - the player the action belongs to
+     * @param action - the action to run on the main thread
+     * @return true iff the action was queued, or false if the player already has getMaxQueuedPerPlayer() actions waiting
+     */
+    public static boolean defer(Player player, Runnable action){
+        return defer(player == null ? SERVER : player.getUniqueId(), action);
+    }
+
+    private static synchronized boolean defer(UUID owner, Runnable action){
+        ArrayDeque<Action> queue = queues.get(owner);
+        if(queue == null){
+            queue = new ArrayDeque<>();
+            queues.put(owner, queue);
+            turns.add(queue);
+        }
+        else if(queue.size() >= maxQueuedPerPlayer){
+            rejected.increment();
+            return false;
+        }
+
+        queue.add(new Action(owner, action, System.nanoTime()));
+        queued++;
+        if(task == null){
+            task = Main.that.getServer().getScheduler().runTaskTimer(Main.that, CUIActionScheduler::tick, 0L, 1L);
+        }
+        return true;
+    }
+
+    private static void tick(){
+        long deadline = System.nanoTime() + (long) (budgetMillis * 1000000);
+        boolean first = true;
+        while(first || System.nanoTime() < deadline){
+            Action action = next();
+            if(action == null){return;}
+            first = false;
+
+            latency.record(Math.max(1, System.nanoTime() - action.deferredAt), 1, 0);
+            try{
+                action.runnable.run();
+            }
+            catch(RuntimeException ex){
+                Main.that.getLogger().log(Level.WARNING, "A deferred custom item action threw an exception", ex);
+            }
+            executed.increment();
+        }
+        synchronized(CUIActionScheduler.class){
+            carriedOver.add(queued);
+        }
+    }
+
+    /**
+     * @return the next action from the queue whose turn it is, or null if every queue is empty
+     */
+    private static synchronized Action next(){
+        ArrayDeque<Action> queue = turns.poll();
+        if(queue == null){
+            if(task != null){
+                task.cancel();
+                task = null;
+            }
+            return null;
+        }
+
+        Action action = queue.poll();
+        queued--;
+        if(queue.isEmpty()){
+            queues.remove(action.owner);
+        }
+        else{
+            turns.add(queue);
+        }
+        return action;
+    }
+
+    /**
+     * @param millis - the most time to spend running deferred actions per tick. The default is 5
+     */
+    public static void setBudgetMillis(double millis){
+        budgetMillis = Math.max(0, millis);
+    }
+
+    /**
+     * @return the most time spent running deferred actions per tick, in milliseconds
+     */
+    public static double getBudgetMillis(){
+        return budgetMillis;
+    }
+
+    /**
+     * @param max - the most actions each player may have waiting. Further actions are rejected. The default is 1000
+     */
+    public static synchronized void setMaxQueuedPerPlayer(int max){
+        maxQueuedPerPlayer = Math.max(1, max);
+    }
+
+    /**
+     * @return the most actions each player may have waiting
+     */
+    public static synchronized int getMaxQueuedPerPlayer(){
+        return maxQueuedPerPlayer;
+    }
+
+    /**
+     * @return the number of actions waiting to run
+     */
+    public static synchronized int getQueueDepth(){
+        return queued;
+    }
+
+    /**
+     * @param player - the player to check
+     * @return the number of the player's actions waiting to run
+     */
+    public static synchronized int getQueueDepth(Player player){
+        ArrayDeque<Action> queue = queues.get(player.getUniqueId());
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * @return the number of players (and the server) that have actions waiting to run
+     */
+    public static synchronized int getQueueCount(){
+        return queues.size();
+    }
+
+    /**
+     * @return the number of deferred actions that have run
+     */
+    public static long getExecutedCount(){
+        return executed.sum();
+    }
+
+    /**
+     * @return the total number of actions that were still waiting at the end of a tick, summed over every tick.
+     * If this grows quickly, the budget is too small for the actions being deferred
+     */
+    public static long getCarriedOverCount(){
+        return carriedOver.sum();
+    }
+
+    /**
+     * @return the number of actions that were rejected because their player's queue was full
+     */
+    public static long getRejectedCount(){
+        return rejected.sum();
+    }
+
+    /**
+     * @return the time between deferring each action and it starting to run, with getCalls() being the number of actions
+     */
+    public static CUIMetrics.Stats getLatencyStats(){
+        return latency;
+    }
+
+    private static final class Action{
+
+        final UUID owner;
+        final Runnable runnable;
+        final long deferredAt;
+
+        Action(UUID owner, Runnable runnable, long deferredAt){
+            this.owner = owner;
+            this.runnable = runnable;
+            this.deferredAt = deferredAt;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.jojodmo.customitems.api;
+
+import com.jojodmo.customitems.Main;
+import com.jojodmo.customitems.item.custom.CustomItem;
+import com.jojodmo.customitems.item.custom.block.CustomItemBlockHandler;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Places or removes many custom blocks at once.
+ *
+ * Blocks are sorted by chunk so that writes to the same chunk happen together. Nothing else is batched: each block is
+ * placed or removed through CustomItemBlockHandler with its own block update, physics and lighting, exactly as a single
+ * block would be. If a time budget is given, the work is spread over as many ticks as needed to stay within it, and
+ * cancelling the future stops it at the next tick. Blocks are kept as world IDs and coordinates, so a long batch does
+ * not keep unloaded chunks or worlds referenced, and blocks in worlds that have been unloaded are skipped.
+ */
+final class CUIBlockBatch implements Runnable{
+
+    private static final Comparator<Change> BY_CHUNK = Comparator.<Change>comparingLong(c -> c.chunk).thenComparingInt(c -> c.y);
+
+    private final Change[] changes;
+    private final boolean doBlockUpdate;
+    private final long budgetNanos;
+    private final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+    private final List<Block> changed = new ArrayList<>();
+    private int nextChange;
+    private BukkitTask task;
+    // the world of the last change, since consecutive changes are almost always in the same world
+    private UUID worldID;
+    private World world;
+
+    private CUIBlockBatch(Change[] changes, boolean doBlockUpdate, long budgetNanos){
+        this.changes = changes;
+        this.doBlockUpdate = doBlockUpdate;
+        this.budgetNanos = budgetNanos;
+    }
+
+    /**
+     * @param ids - the blocks to set, and the Custom Item ID to set each of them to. A null ID removes the custom block
+     * @param maxMillisPerTick - the most time to spend per tick, or 0 or lower to do everything right away
+     * @return a future that completes with the number of blocks that were changed
+     */
+    static CompletableFuture<Integer> start(Map<Block, String> ids, boolean doBlockUpdate, boolean caseSensitive, long maxMillisPerTick){
+        List<Change> list = new ArrayList<>(ids.size());
+        for(Map.Entry<Block, String> entry : ids.entrySet()){
+            Block block = entry.getKey();
+            if(block == null){continue;}
+            CustomItem ci = null;
+            if(entry.getValue() != null){
+                ci = CUIRegistry.get(entry.getValue(), caseSensitive);
+                if(ci == null){continue;}
+            }
+            list.add(new Change(block, ci));
+        }
+
+        return start(list, doBlockUpdate, maxMillisPerTick);
+    }
+
+    /**
+     * Removes the custom blocks at each of blocks right away
+     * @return the blocks that were removed
+     */
+    static List<Block> removeAll(Collection<Block> blocks, boolean doBlockUpdate){
+        List<Change> list = new ArrayList<>(blocks.size());
+        for(Block block : blocks){
+            list.add(new Change(block, null));
+        }
+        CUIBlockBatch batch = new CUIBlockBatch(sort(list), doBlockUpdate, 0);
+        batch.run();
+        return batch.changed;
+    }
+
+    private static Change[] sort(List<Change> list){
+        Change[] changes = list.toArray(new Change[0]);
+        Arrays.sort(changes, BY_CHUNK);
+        return changes;
+    }
+
+    private static CompletableFuture<Integer> start(List<Change> list, boolean doBlockUpdate, long maxMillisPerTick){
+        CUIBlockBatch batch = new CUIBlockBatch(sort(list), doBlockUpdate, maxMillisPerTick <= 0 ? 0 : maxMillisPerTick * 1000000L);
+        if(batch.budgetNanos == 0){
+            batch.run();
+        }
+        else{
+            batch.task = Main.that.getServer().getScheduler().runTaskTimer(Main.that, batch, 0L, 1L);
+        }
+        return batch.future;
+    }
+
+    @Override
+    public void run(){
+        // the future was cancelled, or completed by someone else
+        if(future.isDone()){
+            finish();
+            return;
+        }
+
+        long deadline = budgetNanos == 0 ? Long.MAX_VALUE : System.nanoTime() + budgetNanos;
+        try{
+            while(nextChange < changes.length){
+                Change change = changes[nextChange++];
+                Block block = block(change);
+                if(block == null){continue;}
+
+                CUIBlockFeed.changing(block);
+                Block result = change.item == null
+                        ? CustomItemBlockHandler.remove(block, doBlockUpdate)
+                        : CustomItemBlockHandler.place(block, change.item, doBlockUpdate);
+                if(result != null){
+                    changed.add(block);
+                }
+                if((nextChange & 15) == 0 && System.nanoTime() > deadline){return;}
+            }
+        }
+        catch(RuntimeException ex){
+            finish();
+            future.completeExceptionally(ex);
+            throw ex;
+        }
+
+        finish();
+        future.complete(changed.size());
+    }
+
+    /**
+     * @return the block change is for, or null if its world has been unloaded
+     */
+    private Block block(Change change){
+        if(!change.world.equals(worldID)){
+            worldID = change.world;
+            world = Bukkit.getWorld(worldID);
+        }
+        return world == null ? null : world.getBlockAt(change.x, change.y, change.z);
+    }
+
+    private void finish(){
+        if(task != null){
+            task.cancel();
+            task = null;
+        }
+    }
+
+    private static final class Change{
+
+        final UUID world;
+        final int x, y, z;
+        final CustomItem item;
+        final long chunk;
+
+        Change(Block block, CustomItem item){
+            this.world = block.getWorld().getUID();
+            this.x = block.getX();
+            this.y = block.getY();
+            this.z = block.getZ();
+            this.item = item;
+            this.chunk = ((long) (x >> 4) << 32) | ((z >> 4) & 0xFFFFFFFFL);
+        }
+    }
+}
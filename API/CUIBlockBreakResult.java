@@ -0,0 +1,73 @@
+package com.jojodmo.customitems.api;
+
+import org.bukkit.block.Block;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of CustomItemsAPI.breakCustomItemBlocksWithoutDrops.
+ *
+ * Blocks are referred to by their index in getBlocks(), which is the order the blocks were given in. If the same block
+ * was given more than once, only its first index can be custom or broken.
+ */
+public final class CUIBlockBreakResult{
+
+    private final Block[] blocks;
+    private final BitSet custom;
+    private final BitSet broken;
+    private final List<ItemStack> drops;
+
+    CUIBlockBreakResult(Block[] blocks, BitSet custom, BitSet broken, List<ItemStack> drops){
+        this.blocks = blocks;
+        this.custom = custom;
+        this.broken = broken;
+        this.drops = Collections.unmodifiableList(drops);
+    }
+
+    /**
+     * @return the blocks that were given, in the order they were given in
+     */
+    public Block[] getBlocks(){
+        return blocks.clone();
+    }
+
+    /**
+     * @param index - the index of the block in getBlocks()
+     * @return true iff the block was a custom block. Blocks that are not custom blocks are left alone
+     */
+    public boolean isCustomBlock(int index){
+        return custom.get(index);
+    }
+
+    /**
+     * @param index - the index of the block in getBlocks()
+     * @return true iff the block was broken, or false if it was not a custom block or CustomItems cancelled the block break
+     */
+    public boolean wasBroken(int index){
+        return broken.get(index);
+    }
+
+    /**
+     * @return the number of custom blocks that were broken
+     */
+    public int getBrokenCount(){
+        return broken.cardinality();
+    }
+
+    /**
+     * @return the number of custom blocks that CustomItems cancelled the block break for
+     */
+    public int getCancelledCount(){
+        return custom.cardinality() - broken.cardinality();
+    }
+
+    /**
+     * @return the items that the broken blocks would have normally dropped, with identical items merged into full stacks
+     */
+    public List<ItemStack> getDrops(){
+        return drops;
+    }
+}
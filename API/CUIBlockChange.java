@@ -0,0 +1,80 @@
+package com.jojodmo.customitems.api;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+/**
+ * A custom block that was placed, removed or replaced, as delivered to a CUIBlockChangeListener
+ */
+public final class CUIBlockChange{
+
+    private final World world;
+    private final int x;
+    private final int y;
+    private final int z;
+    private final String oldID;
+    private final String newID;
+
+    CUIBlockChange(World world, int x, int y, int z, String oldID, String newID){
+        this.world = world;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.oldID = oldID;
+        this.newID = newID;
+    }
+
+    /**
+     * @return the world of the block
+     */
+    public World getWorld(){
+        return world;
+    }
+
+    /**
+     * @return the x coordinate of the block
+     */
+    public int getX(){
+        return x;
+    }
+
+    /**
+     * @return the y coordinate of the block
+     */
+    public int getY(){
+        return y;
+    }
+
+    /**
+     * @return the z coordinate of the block
+     */
+    public int getZ(){
+        return z;
+    }
+
+    /**
+     * @return the block that changed
+     */
+    public Block getBlock(){
+        return world.getBlockAt(x, y, z);
+    }
+
+    /**
+     * @return the ID of the Custom Item that was at the block before the change, or null if it was not a custom block
+     */
+    public String getOldID(){
+        return oldID;
+    }
+
+    /**
+     * @return the ID of the Custom Item that is at the block now, or null if the custom block was removed
+     */
+    public String getNewID(){
+        return newID;
+    }
+
+    @Override
+    public String toString(){
+        return "CUIBlockChange{" + world.getName() + " " + x + "," + y + "," + z + ": " + oldID + " -> " + newID + "}";
+    }
+}
@@ -0,0 +1,18 @@
+package com.jojodmo.customitems.api;
+
+import java.util.List;
+
+/**
+ * Receives changes to custom blocks, registered with CustomItemsAPI.addCustomBlockChangeListener
+ */
+@FunctionalInterface
+public interface CUIBlockChangeListener{
+
+    /**
+     * Called on the main thread once per tick in which custom blocks changed, with every recorded change from the tick before.
+     * A block that changed more than once in that tick is only listed once, with its first old ID and its last new ID,
+     * and blocks that ended up the same as they started are left out
+     * @param changes - the changes, in the order the blocks were first changed in. This list can not be modified
+     */
+    void onCustomBlocksChanged(List<CUIBlockChange> changes);
+}
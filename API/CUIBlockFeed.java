@@ -0,0 +1,185 @@
+package com.jojodmo.customitems.api;
+
+import com.jojodmo.customitems.Main;
+import com.jojodmo.customitems.item.custom.CustomItem;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFadeEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.LeavesDecayEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+
+/**
+ * Collects changes to custom blocks and delivers them to CUIBlockChangeListeners once per tick.
+ *
+ * Before a block may change, its current Custom Item ID is remembered. On the next tick, each remembered block is looked
+ * up again, and the blocks whose ID changed are delivered as one batch. Changes made through the API are recorded by the
+ * API itself, and changes made by players and the world are recorded by the LOWEST priority handlers below, which run
+ * before CustomItems handles the event. Nothing is recorded while there are no listeners.
+ *
+ * A change is only seen if something records the block first. CustomItems itself does not tell the API when it changes
+ * a custom block, so changes that do not come from the API or from one of the events below are missed. That includes
+ * blocks changed by custom item actions and commands, by other plugins through CustomItemBlockHandler or by editing the
+ * world directly, and by chunks being regenerated. Code that changes custom blocks like that can call
+ * CustomItemsAPI.notifyCustomBlockChanging(block) first.
+ *
+ * Every method must be called from the main thread.
+ */
+final class CUIBlockFeed implements Listener{
+
+    private static final List<CUIBlockChangeListener> listeners = new CopyOnWriteArrayList<>();
+    // the ID of each block before its first change this tick. Blocks compare by world and coordinates
+    private static final Map<Block, String> pending = new LinkedHashMap<>();
+    private static boolean listening;
+
+    private CUIBlockFeed(){}
+
+    static void addListener(CUIBlockChangeListener listener){
+        if(!listening){
+            listening = true;
+            Main.that.getServer().getPluginManager().registerEvents(new CUIBlockFeed(), Main.that);
+        }
+        listeners.add(listener);
+    }
+
+    static boolean removeListener(CUIBlockChangeListener listener){
+        return listeners.remove(listener);
+    }
+
+    /**
+     * Remembers what is at block, since it may be about to change. Must be called before the change is made
+     */
+    static void changing(Block block){
+        if(listeners.isEmpty() || pending.containsKey(block)){return;}
+        if(pending.isEmpty()){
+            Main.that.getServer().getScheduler().runTask(Main.that, CUIBlockFeed::flush);
+        }
+        CustomItem ci = CUIBlockLookup.get(block);
+        pending.put(block, ci == null ? null : ci.getId());
+    }
+
+    private static void changing(List<Block> blocks){
+        for(Block block : blocks){
+            changing(block);
+        }
+    }
+
+    private static void moving(List<Block> blocks, BlockFace direction){
+        for(Block block : blocks){
+            changing(block);
+            changing(block.getRelative(direction));
+        }
+    }
+
+    private static void flush(){
+        List<CUIBlockChange> changes = new ArrayList<>();
+        for(Map.Entry<Block, String> entry : pending.entrySet()){
+            Block block = entry.getKey();
+            CustomItem ci = CUIBlockLookup.get(block);
+            String id = ci == null ? null : ci.getId();
+            if(!Objects.equals(entry.getValue(), id)){
+                changes.add(new CUIBlockChange(block.getWorld(), block.getX(), block.getY(), block.getZ(), entry.getValue(), id));
+            }
+        }
+        pending.clear();
+        if(changes.isEmpty()){return;}
+
+        List<CUIBlockChange> batch = Collections.unmodifiableList(changes);
+        for(CUIBlockChangeListener listener : listeners){
+            try{
+                listener.onCustomBlocksChanged(batch);
+            }
+            catch(RuntimeException ex){
+                Main.that.getLogger().log(Level.WARNING, "A custom block change listener threw an exception", ex);
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent e){
+        changing(e.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent e){
+        changing(e.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST, ignoreCancelled = true)
+    public void onBlockBurn(BlockBurnEvent e){
+        changing(e.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST, ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent e){
+        changing(e.getBlock());
+        changing(e.blockList());
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent e){
+        changing(e.blockList());
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST, ignoreCancelled = true)
+    public void onPistonExtend(BlockPistonExtendEvent e){
+        moving(e.getBlocks(), e.getDirection());
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST, ignoreCancelled = true)
+    public void onPistonRetract(BlockPistonRetractEvent e){
+        moving(e.getBlocks(), e.getDirection());
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST, ignoreCancelled = true)
+    public void onBlockFade(BlockFadeEvent e){
+        changing(e.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST, ignoreCancelled = true)
+    public void onLeavesDecay(LeavesDecayEvent e){
+        changing(e.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST, ignoreCancelled = true)
+    public void onBlockFromTo(BlockFromToEvent e){
+        changing(e.getToBlock());
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST, ignoreCancelled = true)
+    public void onEntityChangeBlock(EntityChangeBlockEvent e){
+        changing(e.getBlock());
+    }
+
+    // not ignoreCancelled, since right clicks with an item in hand are often cancelled before CustomItems places a block.
+    // Recording a block that then does not change costs a lookup, but nothing is delivered for it
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onPlayerInteract(PlayerInteractEvent e){
+        if(e.getAction() != Action.RIGHT_CLICK_BLOCK || e.getClickedBlock() == null){return;}
+        changing(e.getClickedBlock());
+        if(e.getBlockFace() != null){
+            changing(e.getClickedBlock().getRelative(e.getBlockFace()));
+        }
+    }
+}
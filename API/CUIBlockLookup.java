@@ -0,0 +1,89 @@
+package com.jojodmo.customitems.api;
+
+import com.jojodmo.customitems.Main;
+import com.jojodmo.customitems.item.custom.CustomItem;
+import com.jojodmo.customitems.item.custom.block.CustomItemBlockHandler;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+
+/**
+ * Looks up custom blocks by coordinates for the API.
+ *
+ * Every lookup reads CustomItemBlockHandler directly. Nothing is cached, since CustomItems and other plugins can change
+ * custom blocks without telling the API, and a cache would then keep returning the old block. The only thing saved over
+ * CustomItemBlockHandler.get(block.getLocation()) is the Location, which is reused on the main thread instead of
+ * allocated per lookup.
+ *
+ * get() behaves like CustomItemBlockHandler.get on whichever thread calls it. waitFor() is for other threads, and asks
+ * the main thread to look the block up instead.
+ */
+final class CUIBlockLookup{
+
+    // only used on the main thread
+    private static final Location probe = new Location(null, 0, 0, 0);
+
+    private CUIBlockLookup(){}
+
+    /**
+     * @return the Custom Item placed at the given block, or null if it is not a custom block
+     */
+    static CustomItem get(World world, int x, int y, int z){
+        if(!Bukkit.isPrimaryThread()){return CustomItemBlockHandler.get(new Location(world, x, y, z));}
+
+        probe.setWorld(world);
+        probe.setX(x);
+        probe.setY(y);
+        probe.setZ(z);
+        CustomItem ci = CustomItemBlockHandler.get(probe);
+        probe.setWorld(null);
+        return ci;
+    }
+
+    static CustomItem get(Block block){
+        return get(block.getWorld(), block.getX(), block.getY(), block.getZ());
+    }
+
+    /**
+     * Look the block up on the main thread, and wait for the answer
+     * @param world - the world of the block
+     * @param x - the x coordinate of the block
+     * @param y - the y coordinate of the block
+     * @param z - the z coordinate of the block
+     * @param timeoutMillis - how long to wait for the main thread, in milliseconds
+     * @return the ordinal of the Custom Item placed at the given block, -1 if it is not a custom block, or
+     * CustomItemsAPI.BLOCK_UNKNOWN if the main thread did not look the block up in time, the plugin is disabled, the
+     * thread was interrupted, or the lookup failed
+     */
+    static int waitFor(World world, int x, int y, int z, long timeoutMillis){
+        if(Bukkit.isPrimaryThread()){return CUIRegistry.ordinal(get(world, x, y, z));}
+
+        // the scheduler stops running tasks once the plugin is disabled, so do not wait for it
+        if(!Main.that.isEnabled()){return CustomItemsAPI.BLOCK_UNKNOWN;}
+
+        Future<Integer> future = Bukkit.getScheduler().callSyncMethod(Main.that, () -> CUIRegistry.ordinal(get(world, x, y, z)));
+        try{
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch(TimeoutException ex){
+            future.cancel(false);
+            return CustomItemsAPI.BLOCK_UNKNOWN;
+        }
+        catch(InterruptedException ex){
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            return CustomItemsAPI.BLOCK_UNKNOWN;
+        }
+        catch(ExecutionException ex){
+            Main.that.getLogger().log(Level.WARNING, "Could not look up the custom block at " + x + ", " + y + ", " + z, ex.getCause());
+            return CustomItemsAPI.BLOCK_UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.jojodmo.customitems.api;
+
+/**
+ * The durability of a Custom Item stack, filled in by CustomItemsAPI.readCustomItemDurability.
+ *
+ * A view can be reused for as many stacks as you like, so reading the held item every tick does not allocate a new view.
+ * Views are not thread-safe.
+ */
+public final class CUIDurabilityView{
+
+    private String id;
+    private int ordinal = -1;
+    private boolean damageable;
+    private int damage;
+    private int maxDamage;
+
+    public CUIDurabilityView(){}
+
+    void set(String id, int ordinal, Integer damage, Integer maxDamage){
+        this.id = id;
+        this.ordinal = ordinal;
+        this.damageable = damage != null && maxDamage != null;
+        this.damage = damage == null ? 0 : damage;
+        this.maxDamage = maxDamage == null ? 0 : maxDamage;
+    }
+
+    void clear(){
+        set(null, -1, null, null);
+    }
+
+    /**
+     * @return true iff the last stack read was a Custom Item
+     */
+    public boolean isCustomItem(){
+        return id != null;
+    }
+
+    /**
+     * @return the ID of the Custom Item, or null if the last stack read was not a Custom Item
+     */
+    public String getID(){
+        return id;
+    }
+
+    /**
+     * @return the ordinal of the Custom Item (see CUIItem.getOrdinal()), or -1
+     */
+    public int getOrdinal(){
+        return ordinal;
+    }
+
+    /**
+     * @return true iff the Custom Item has durability
+     */
+    public boolean isDamageable(){
+        return damageable;
+    }
+
+    /**
+     * @return the damage on the item (0 is completely unused, getMaxDamage() is the max), or 0 if it is not damageable
+     */
+    public int getDamage(){
+        return damage;
+    }
+
+    /**
+     * @return the maximum possible damage on the item before it breaks, or 0 if it is not damageable
+     */
+    public int getMaxDamage(){
+        return maxDamage;
+    }
+
+    /**
+     * @return the remaining durability of the item, or 0 if it is not damageable
+     */
+    public int getRemaining(){
+        return Math.max(0, maxDamage - damage);
+    }
+}
@@ -4,6 +4,9 @@ import com.jojodmo.customitems.item.generic.GenericItem;
 import org.bukkit.Material;
 import org.bukkit.inventory.ItemStack;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 class CUIGenericItem{
 
     private final Material material;
@@ -19,18 +22,87 @@ class CUIGenericItem{
 
     public CUIGenericItem(String id){this(id, false);}
     public CUIGenericItem(String id, boolean caseSensitive){
+        this(get(id, caseSensitive));
+    }
+
+    private CUIGenericItem(CUIGenericItem other){
+        this(other.material, other.customItem);
+    }
+
+    private static final int CACHE_SIZE = 1024;
+    private static final CUIGenericItem MISSING = new CUIGenericItem(null, null);
+    private static final Map<Key, CUIGenericItem> cache = new LinkedHashMap<Key, CUIGenericItem>(CACHE_SIZE, 0.75f, true){
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, CUIGenericItem> eldest){
+            return size() > CACHE_SIZE;
+        }
+    };
+    private static long cacheVersion = -1;
+
+    /**
+     * Same as new CUIGenericItem(id, caseSensitive), but returns a shared instance. The most recently used IDs are
+     * cached, including IDs that don't exist, and the cache is cleared whenever the registry changes
+     * @param id - the Custom Item ID or native Minecraft material name
+     * @param caseSensitive - set to true to make sure the ID matches case-sensitively
+     * @return the shared item for id. Use exists() to check if it represents any item
+     */
+    static CUIGenericItem get(String id, boolean caseSensitive){
+        if(id == null){return MISSING;}
+        long version = CUIRegistry.index().snapshot.getVersion();
+        Key key = new Key(id, caseSensitive);
+
+        synchronized(cache){
+            if(cacheVersion != version){
+                cache.clear();
+                cacheVersion = version;
+            }
+            CUIGenericItem cached = cache.get(key);
+            if(cached != null){return cached;}
+        }
+
+        CUIGenericItem item = resolve(id, caseSensitive);
+        synchronized(cache){
+            if(cacheVersion == version){
+                cache.put(key, item);
+            }
+        }
+        return item;
+    }
+
+    private static CUIGenericItem resolve(String id, boolean caseSensitive){
         GenericItem gi = GenericItem.get(id, 1, !caseSensitive);
         if(gi == null){
-            this.material = null;
-            this.customItem = null;
+            return MISSING;
         }
         else if(gi.isCustomItem()){
-            this.material = null;
-            this.customItem = new CUIItem(gi.getCustomItem());
+            CUIRegistry.Entry entry = CUIRegistry.entry(gi.getCustomItem());
+            return new CUIGenericItem(entry == null ? new CUIItem(gi.getCustomItem()) : entry.handle);
         }
         else{
-            this.material = gi.getMaterial();
-            this.customItem = null;
+            return new CUIGenericItem(gi.getMaterial());
+        }
+    }
+
+    private static final class Key{
+
+        private final String id;
+        private final boolean caseSensitive;
+
+        Key(String id, boolean caseSensitive){
+            this.id = id;
+            this.caseSensitive = caseSensitive;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof Key)){return false;}
+            Key other = (Key) o;
+            return caseSensitive == other.caseSensitive && id.equals(other.id);
+        }
+
+        @Override
+        public int hashCode(){
+            return id.hashCode() * 31 + (caseSensitive ? 1 : 0);
         }
     }
 
@@ -0,0 +1,113 @@
+package com.jojodmo.customitems.api;
+
+import com.jojodmo.customitems.item.custom.CustomItem;
+import com.jojodmo.customitems.item.custom.handler.CustomItemHandler;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Identifies the Custom Items in a whole array of ItemStacks in one pass.
+ *
+ * A stack that is similar (same type and meta, any amount) to one of the last few stacks identified reuses its result,
+ * so runs of repeated stacks only have their meta read once. Only RECENT stacks are compared, so each slot costs at
+ * most RECENT comparisons, however many different items the inventory holds.
+ */
+final class CUIInventoryScanner{
+
+    private static final int RECENT = 4;
+
+    // a ring of the last RECENT stacks that were identified
+    private final ItemStack[] seen = new ItemStack[RECENT];
+    private final CustomItem[] seenItems = new CustomItem[RECENT];
+    private int seenNext;
+
+    private CustomItem[] items = new CustomItem[8];
+    private int[] amounts = new int[8];
+    private int itemCount;
+
+    private CUIInventoryScanner(){}
+
+    /**
+     * @return an array the same length as contents, holding the Custom Item in each slot, or null
+     */
+    static CustomItem[] identify(ItemStack[] contents){
+        CustomItem[] result = new CustomItem[contents.length];
+        CUIInventoryScanner scanner = new CUIInventoryScanner();
+        for(int i = 0; i < contents.length; i++){
+            result[i] = scanner.identify(contents[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @return a map from each Custom Item ID in contents to the total amount of that item
+     */
+    static Map<String, Integer> count(ItemStack[] contents){
+        CUIInventoryScanner scanner = new CUIInventoryScanner();
+        for(ItemStack stack : contents){
+            CustomItem ci = scanner.identify(stack);
+            if(ci != null){
+                scanner.add(ci, stack.getAmount());
+            }
+        }
+
+        Map<String, Integer> result = new HashMap<>(scanner.itemCount * 2);
+        for(int i = 0; i < scanner.itemCount; i++){
+            result.merge(scanner.items[i].getId(), scanner.amounts[i], Integer::sum);
+        }
+        return result;
+    }
+
+    /**
+     * @return the total amount of ci in contents
+     */
+    static int count(ItemStack[] contents, CustomItem ci){
+        CUIInventoryScanner scanner = new CUIInventoryScanner();
+        int total = 0;
+        for(ItemStack stack : contents){
+            if(scanner.identify(stack) == ci){
+                total += stack.getAmount();
+            }
+        }
+        return total;
+    }
+
+    private CustomItem identify(ItemStack stack){
+        if(stack == null){return null;}
+        Material type = stack.getType();
+        if(type == null || type == Material.AIR){return null;}
+
+        for(int i = 0; i < RECENT; i++){
+            ItemStack other = seen[i];
+            if(other != null && (other == stack || (other.getType() == type && other.isSimilar(stack)))){
+                return seenItems[i];
+            }
+        }
+
+        CustomItem ci = CustomItemHandler.getCustomItem(stack);
+        seen[seenNext] = stack;
+        seenItems[seenNext] = ci;
+        seenNext = (seenNext + 1) % RECENT;
+        return ci;
+    }
+
+    private void add(CustomItem ci, int amount){
+        for(int i = 0; i < itemCount; i++){
+            if(items[i] == ci){
+                amounts[i] += amount;
+                return;
+            }
+        }
+        if(itemCount == items.length){
+            items = Arrays.copyOf(items, itemCount * 2);
+            amounts = Arrays.copyOf(amounts, itemCount * 2);
+        }
+        items[itemCount] = ci;
+        amounts[itemCount] = amount;
+        itemCount++;
+    }
+}
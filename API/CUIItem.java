@@ -6,10 +6,16 @@ import org.bukkit.inventory.ItemStack;
 
 public class CUIItem{
 
-    private CustomItem wrapped;
+    private volatile CustomItem wrapped;
+    private final int ordinal;
 
     protected CUIItem(CustomItem item){
-        wrapped = item;
+        this(item, -1);
+    }
+
+    CUIItem(CustomItem item, int ordinal){
+        this.wrapped = item;
+        this.ordinal = ordinal;
     }
 
     public CUIItem(String id){
@@ -17,7 +23,8 @@ public class CUIItem{
     }
 
     public CUIItem(String id, boolean caseSensitive){
-        wrapped = CustomItem.get(id, !caseSensitive);
+        wrapped = CUIRegistry.get(id, caseSensitive);
+        ordinal = -1;
     }
 
     public boolean exists(){
@@ -28,6 +35,31 @@ public class CUIItem{
         return this.wrapped.getId();
     }
 
+    /**
+     * Every Custom Item ID is given a small, dense ordinal the first time it is registered. The ordinal
+     * never changes while the server is running, even if the item is reloaded.
+     * @return the ordinal of this item, or -1 if it is not registered
+     */
+    public int getOrdinal(){
+        if(this.ordinal >= 0){return this.ordinal;}
+        return CUIRegistry.ordinal(this.wrapped);
+    }
+
+    /**
+     * Faster than CustomItemsAPI.isCustomItem(stack, getID()), since no IDs are compared
+     * @param stack - the ItemStack to check
+     * @return true iff stack is this Custom Item
+     */
+    public boolean isItem(ItemStack stack){
+        CustomItem ci = this.wrapped;
+        if(ci == null){return false;}
+        CustomItem other = CustomItemHandler.getCustomItem(stack);
+        if(other == null){return false;}
+        if(other == ci){return true;}
+        int ordinal = getOrdinal();
+        return ordinal >= 0 && ordinal == CUIRegistry.ordinal(other);
+    }
+
     public ItemStack getItemStack(){
         return getItemStack(1);
     }
@@ -35,4 +67,12 @@ public class CUIItem{
     public ItemStack getItemStack(int amount){
         return wrapped.getAmountItemStack(amount);
     }
+
+    CustomItem getWrapped(){
+        return this.wrapped;
+    }
+
+    void setWrapped(CustomItem wrapped){
+        this.wrapped = wrapped;
+    }
 }
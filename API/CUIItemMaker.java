@@ -7,9 +7,12 @@ import org.bukkit.enchantments.Enchantment;
 import org.bukkit.inventory.ItemStack;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class CUIItemMaker{
 
@@ -83,10 +86,52 @@ public class CUIItemMaker{
                 id, this
         );
         registered = new CUIItem(ci);
+        CUIRegistry.invalidate();
 
         return ci.isValid() ? CUIItemRegistrationStatus.SUCCESS : CUIItemRegistrationStatus.INVALID_ITEM;
     }
 
+    /**
+     * Register many items at once. Every maker is checked before any item is created, so a maker whose ID is missing,
+     * already registered, or repeated within makers (case-insensitive) is rejected without creating an item. Every other
+     * maker is then registered with register(), in order. The items that were registered stay registered even if a later
+     * maker turns out to be invalid. The lookup indexes are only rebuilt the next time an item is looked up, so
+     * registering many items does not rebuild them once per item.
+     * @param makers - the items to register
+     * @return the registration status of each maker, in the same order as makers. A maker that is rejected by the checks
+     * gets ALREADY_REGISTERED, INVALID_ITEM or ALREADY_EXISTS
+     */
+    public static List<CUIItemRegistrationStatus> registerAll(Collection<CUIItemMaker> makers){
+        List<CUIItemRegistrationStatus> result = new ArrayList<>(makers.size());
+        Set<String> ids = new HashSet<>();
+        for(CUIItemMaker maker : makers){
+            CUIItemRegistrationStatus status = maker.check();
+            if(status == null && !ids.add(maker.id.toLowerCase())){
+                status = CUIItemRegistrationStatus.ALREADY_EXISTS;
+            }
+            result.add(status);
+        }
+
+        int i = 0;
+        for(CUIItemMaker maker : makers){
+            if(result.get(i) == null){
+                result.set(i, maker.register());
+            }
+            i++;
+        }
+        return result;
+    }
+
+    /**
+     * @return why this maker can not be registered, or null if it can be
+     */
+    private CUIItemRegistrationStatus check(){
+        if(registered != null){return CUIItemRegistrationStatus.ALREADY_REGISTERED;}
+        if(id == null || id.isEmpty()){return CUIItemRegistrationStatus.INVALID_ITEM;}
+        if(CUIRegistry.get(id, false) != null){return CUIItemRegistrationStatus.ALREADY_EXISTS;}
+        return null;
+    }
+
     public CUIItem getItem(){
         return this.registered;
     }
@@ -1,6 +1,6 @@
 package com.jojodmo.customitems.api;
 
-enum CUIItemRegistrationStatus{
+public enum CUIItemRegistrationStatus{
     SUCCESS,
     ALREADY_REGISTERED,
     INVALID_ITEM,
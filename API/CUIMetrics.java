@@ -0,0 +1,312 @@
+package com.jojodmo.customitems.api;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optional instrumentation of the CustomItems API, to find out how much time other plugins spend calling it.
+ *
+ * Metrics are off by default, and cost a single volatile read per API call while they are off. While they are on,
+ * the outermost instrumented call on each thread records its latency and an estimate of the bytes it allocated. Calls
+ * the API makes to itself are part of that outer call, and are not recorded again under their own name. One in every
+ * CALLER_SAMPLE_RATE calls looks up the calling plugin, which is the first class on the stack that a plugin loaded.
+ */
+public final class CUIMetrics{
+
+    /**
+     * How often the calling plugin is looked up. Finding the caller means walking the stack, so it is only done
+     * for one in this many calls, and its counts are scaled up to match
+     */
+    public static final int CALLER_SAMPLE_RATE = 64;
+
+    private static final int BUCKETS = 64;
+
+    // frames from these packages are never the calling plugin, so they are skipped without asking Bukkit
+    private static final String[] SERVER_PACKAGES = {
+            "com.jojodmo.customitems.", "java.", "javax.", "jdk.", "sun.", "com.sun.", "org.bukkit.", "org.spigotmc.",
+            "net.minecraft.", "io.papermc.", "com.destroystokyo.", "co.aikar."
+    };
+
+    private static volatile boolean enabled;
+    private static volatile long enabledAt;
+
+    private static final Map<String, Stats> methods = new ConcurrentHashMap<>();
+    private static final Map<String, Stats> plugins = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, String> pluginNames = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Frame> frames = ThreadLocal.withInitial(Frame::new);
+    private static final CallerFinder callerFinder = new CallerFinder();
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private CUIMetrics(){}
+
+    /**
+     * @param enable - true to start recording metrics, false to stop. Recorded metrics are kept until reset() is called
+     */
+    public static void setEnabled(boolean enable){
+        if(enable && !enabled){
+            enabledAt = System.currentTimeMillis();
+        }
+        enabled = enable;
+    }
+
+    /**
+     * @return true iff metrics are being recorded
+     */
+    public static boolean isEnabled(){
+        return enabled;
+    }
+
+    /**
+     * Discards all recorded metrics
+     */
+    public static void reset(){
+        methods.clear();
+        plugins.clear();
+        enabledAt = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the recorded metrics of each instrumented API method, by method name
+     */
+    public static Map<String, Stats> getMethodStats(){
+        return Collections.unmodifiableMap(new HashMap<>(methods));
+    }
+
+    /**
+     * @return the estimated metrics of the API calls made by each plugin, by plugin name. Calls that do not come
+     * from a plugin are recorded under "Server"
+     */
+    public static Map<String, Stats> getPluginStats(){
+        return Collections.unmodifiableMap(new HashMap<>(plugins));
+    }
+
+    static long start(){
+        if(!enabled){return 0L;}
+        Frame frame = frames.get();
+        if(frame.depth++ == 0){
+            frame.startBytes = allocatedBytes();
+        }
+        return System.nanoTime();
+    }
+
+    static void end(String method, long start){
+        if(start == 0L){return;}
+        // only the outermost call is recorded, so the API calling itself does not count the same work twice
+        Frame frame = frames.get();
+        if(--frame.depth > 0){return;}
+
+        long nanos = System.nanoTime() - start;
+        long bytes = frame.startBytes < 0 ? 0 : Math.max(0, allocatedBytes() - frame.startBytes);
+        // keep the Stats that was recorded to, since reset() may clear the map at any time
+        Stats stats = methods.computeIfAbsent(method, k -> new Stats());
+        stats.record(nanos, 1, bytes);
+        if(++frame.calls % CALLER_SAMPLE_RATE == 0){
+            plugins.computeIfAbsent(caller(), k -> new Stats()).record(nanos * CALLER_SAMPLE_RATE, CALLER_SAMPLE_RATE, bytes * CALLER_SAMPLE_RATE);
+        }
+    }
+
+    private static long allocatedBytes(){
+        if(threads instanceof com.sun.management.ThreadMXBean){
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static String caller(){
+        for(Class<?> c : callerFinder.getClassContext()){
+            if(isServerClass(c.getName())){continue;}
+            String name = pluginNames.computeIfAbsent(c, CUIMetrics::pluginName);
+            if(name.length() > 0){return name;}
+        }
+        return "Server";
+    }
+
+    private static boolean isServerClass(String name){
+        for(String prefix : SERVER_PACKAGES){
+            if(name.startsWith(prefix)){return true;}
+        }
+        return false;
+    }
+
+    /**
+     * @return the name of the plugin that loaded c, or "" if c was not loaded by a plugin
+     */
+    private static String pluginName(Class<?> c){
+        try{
+            return JavaPlugin.getProvidingPlugin(c).getName();
+        }
+        catch(IllegalArgumentException | IllegalStateException ex){
+            return "";
+        }
+    }
+
+    /**
+     * Handles /cui profile [on|off|reset|top amount]
+     * @param sender - the sender of the command
+     * @param args - the arguments after "profile"
+     */
+    public static void handleProfileCommand(CommandSender sender, String[] args){
+        String action = args.length == 0 ? "top" : args[0].toLowerCase();
+        switch(action){
+            case "on":
+                setEnabled(true);
+                sender.sendMessage(ChatColor.GREEN + "CustomItems API profiling is now on");
+                return;
+            case "off":
+                setEnabled(false);
+                sender.sendMessage(ChatColor.GREEN + "CustomItems API profiling is now off");
+                return;
+            case "reset":
+                reset();
+                sender.sendMessage(ChatColor.GREEN + "CustomItems API profiling data has been reset");
+                return;
+            case "top":
+                int top = 10;
+                if(args.length > 1){
+                    try{
+                        top = Integer.parseInt(args[1]);
+                    }
+                    catch(NumberFormatException ex){
+                        sender.sendMessage(ChatColor.RED + "Usage: /cui profile [on|off|reset|top <amount>]");
+                        return;
+                    }
+                }
+                for(String line : report(top)){
+                    sender.sendMessage(line);
+                }
+                return;
+            default:
+                sender.sendMessage(ChatColor.RED + "Usage: /cui profile [on|off|reset|top <amount>]");
+        }
+    }
+
+    /**
+     * @param top - the most methods and plugins to list
+     * @return a readable report of the API methods and plugins that used the most time
+     */
+    public static List<String> report(int top){
+        List<String> lines = new ArrayList<>();
+        long seconds = Math.max(1, (System.currentTimeMillis() - enabledAt) / 1000);
+        lines.add(ChatColor.GOLD + "CustomItems API profile (" + (enabled ? "on" : "off") + ", last " + seconds + "s)");
+
+        lines.add(ChatColor.YELLOW + "Top methods by total time:");
+        for(Map.Entry<String, Stats> entry : sorted(methods, top)){
+            Stats stats = entry.getValue();
+            lines.add(ChatColor.WHITE + " " + entry.getKey() + ChatColor.GRAY + " " + stats.getCalls() + " calls, "
+                    + millis(stats.getTotalNanos()) + " total, p50 " + micros(stats.getPercentileNanos(0.5))
+                    + ", p99 " + micros(stats.getPercentileNanos(0.99)) + ", ~" + (stats.getAllocatedBytes() / Math.max(1, stats.getCalls())) + " B/call");
+        }
+
+        lines.add(ChatColor.YELLOW + "Top plugins by total time (sampled):");
+        for(Map.Entry<String, Stats> entry : sorted(plugins, top)){
+            Stats stats = entry.getValue();
+            lines.add(ChatColor.WHITE + " " + entry.getKey() + ChatColor.GRAY + " ~" + stats.getCalls() + " calls, ~"
+                    + millis(stats.getTotalNanos()) + " total, ~" + (stats.getAllocatedBytes() / 1024) + " KiB allocated");
+        }
+        return lines;
+    }
+
+    private static List<Map.Entry<String, Stats>> sorted(Map<String, Stats> map, int top){
+        List<Map.Entry<String, Stats>> list = new ArrayList<>(map.entrySet());
+        list.sort((a, b) -> Long.compare(b.getValue().getTotalNanos(), a.getValue().getTotalNanos()));
+        return list.subList(0, Math.min(Math.max(0, top), list.size()));
+    }
+
+    private static String millis(long nanos){
+        return String.format("%.1fms", nanos / 1000000.0);
+    }
+
+    private static String micros(long nanos){
+        return String.format("%.1fus", nanos / 1000.0);
+    }
+
+    /**
+     * The recorded metrics of an API method or plugin
+     */
+    public static final class Stats{
+
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder allocated = new LongAdder();
+        // histogram[i] counts the calls that took between 2^i and 2^(i+1) nanoseconds
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        Stats(){}
+
+        void record(long nanos, long calls, long bytes){
+            this.calls.add(calls);
+            this.nanos.add(nanos);
+            this.allocated.add(bytes);
+            histogram.addAndGet(63 - Long.numberOfLeadingZeros(Math.max(1, nanos / calls)), calls);
+        }
+
+        /**
+         * @return the number of calls
+         */
+        public long getCalls(){
+            return calls.sum();
+        }
+
+        /**
+         * @return the total time spent in the calls, in nanoseconds
+         */
+        public long getTotalNanos(){
+            return nanos.sum();
+        }
+
+        /**
+         * @return an estimate of the total bytes allocated by the calls, or 0 if the JVM can not measure allocations
+         */
+        public long getAllocatedBytes(){
+            return allocated.sum();
+        }
+
+        /**
+         * @param percentile - between 0 and 1, for example 0.99 for the 99th percentile
+         * @return an upper bound of the given latency percentile, in nanoseconds. Latencies are recorded in
+         * power-of-two buckets, so this is accurate to within a factor of two
+         */
+        public long getPercentileNanos(double percentile){
+            long total = 0;
+            for(int i = 0; i < BUCKETS; i++){
+                total += histogram.get(i);
+            }
+
+            long target = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for(int i = 0; i < BUCKETS; i++){
+                seen += histogram.get(i);
+                if(seen >= target && seen > 0){
+                    return i >= 62 ? Long.MAX_VALUE : (2L << i) - 1;
+                }
+            }
+            return 0;
+        }
+    }
+
+    private static final class Frame{
+        int depth;
+        long startBytes;
+        long calls;
+    }
+
+    @SuppressWarnings({"deprecation", "removal"})
+    private static final class CallerFinder extends SecurityManager{
+        @Override
+        protected Class<?>[] getClassContext(){
+            return super.getClassContext();
+        }
+    }
+}
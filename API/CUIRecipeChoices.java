@@ -0,0 +1,91 @@
+package com.jojodmo.customitems.api;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.RecipeChoice;
+import org.bukkit.inventory.ShapedRecipe;
+import org.bukkit.inventory.ShapelessRecipe;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads recipe ingredients as RecipeChoices, which can accept several materials or exact items.
+ *
+ * RecipeChoice only exists on 1.13 and newer, so this class is only loaded once CUIRecipeIndex has checked that it does.
+ */
+final class CUIRecipeChoices{
+
+    private CUIRecipeChoices(){}
+
+    static Map<Character, CUIRecipeIndex.Ingredient> shaped(ShapedRecipe recipe){
+        Map<Character, CUIRecipeIndex.Ingredient> ingredients = new HashMap<>();
+        for(Map.Entry<Character, RecipeChoice> entry : recipe.getChoiceMap().entrySet()){
+            CUIRecipeIndex.Ingredient ingredient = ingredient(entry.getValue());
+            if(ingredient != null){
+                ingredients.put(entry.getKey(), ingredient);
+            }
+        }
+        return ingredients;
+    }
+
+    static List<CUIRecipeIndex.Ingredient> shapeless(ShapelessRecipe recipe){
+        List<CUIRecipeIndex.Ingredient> ingredients = new ArrayList<>();
+        for(RecipeChoice choice : recipe.getChoiceList()){
+            CUIRecipeIndex.Ingredient ingredient = ingredient(choice);
+            if(ingredient != null){
+                ingredients.add(ingredient);
+            }
+        }
+        return ingredients;
+    }
+
+    private static CUIRecipeIndex.Ingredient ingredient(RecipeChoice choice){
+        if(choice == null){return null;}
+
+        if(choice instanceof RecipeChoice.MaterialChoice){
+            List<Material> materials = new ArrayList<>(((RecipeChoice.MaterialChoice) choice).getChoices());
+            materials.removeIf(material -> material == null || material == Material.AIR);
+            return materials.isEmpty() ? null : new ChoiceIngredient(choice, materials.toArray(new Material[0]), new int[0]);
+        }
+
+        if(choice instanceof RecipeChoice.ExactChoice){
+            List<Material> materials = new ArrayList<>();
+            List<Integer> custom = new ArrayList<>();
+            for(ItemStack stack : ((RecipeChoice.ExactChoice) choice).getChoices()){
+                if(CUIRecipeIndex.isEmpty(stack)){continue;}
+                if(!materials.contains(stack.getType())){materials.add(stack.getType());}
+                int ordinal = CUIRecipeIndex.ordinal(stack);
+                if(ordinal >= 0 && !custom.contains(ordinal)){custom.add(ordinal);}
+            }
+            if(materials.isEmpty()){return null;}
+            int[] ordinals = new int[custom.size()];
+            for(int i = 0; i < ordinals.length; i++){
+                ordinals[i] = custom.get(i);
+            }
+            return new ChoiceIngredient(choice, materials.toArray(new Material[0]), ordinals);
+        }
+
+        // a kind of choice this does not know, so its materials are not known either
+        return new ChoiceIngredient(choice, null, new int[0]);
+    }
+
+    private static final class ChoiceIngredient extends CUIRecipeIndex.Ingredient{
+
+        private final RecipeChoice choice;
+
+        ChoiceIngredient(RecipeChoice choice, Material[] materials, int[] custom){
+            super(materials, custom);
+            this.choice = choice;
+        }
+
+        @Override
+        boolean test(ItemStack stack, int ordinal){
+            // a Custom Item is identified by its ID rather than by comparing its whole meta, which can change as it is used
+            if(ordinal >= 0){return acceptsCustom(ordinal);}
+            return choice.test(stack);
+        }
+    }
+}
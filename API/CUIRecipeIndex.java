@@ -0,0 +1,515 @@
+package com.jojodmo.customitems.api;
+
+import com.jojodmo.customitems.item.custom.CustomItem;
+import com.jojodmo.customitems.item.custom.handler.CustomItemHandler;
+import com.jojodmo.customitems.item.generic.GenericItem;
+import com.jojodmo.customitems.item.generic.recipe.GenericItemRecipe;
+import com.jojodmo.customitems.item.generic.recipe.handler.GenericItemRecipeHandler;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.Recipe;
+import org.bukkit.inventory.ShapedRecipe;
+import org.bukkit.inventory.ShapelessRecipe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index over the recipes of Custom Items, as GenericItemRecipeHandler.getRecipes returns them.
+ *
+ * Recipes are indexed by the Custom Item they belong to, by the Custom Items they use, and by their shape. A shape is
+ * the recipe's grid with its empty rows and columns trimmed off, where each cell is either empty or a material, and
+ * Custom Items count as their material. An ingredient that accepts several materials is indexed under every combination
+ * of them, so a crafting grid only has to be hashed to find the few recipes that could match it. Each of those is then
+ * matched against the grid in full, including item data and which Custom Item each cell holds, and the first recipe
+ * in registry order wins. Recipes with more than MAX_COMBINATIONS combinations are only indexed by which cells they
+ * use, and are matched in full against every grid that uses the same cells.
+ *
+ * The index is built on the main thread, and rebuilt whenever the Custom Item registry index is, which happens when
+ * items are registered or reloaded, or when CustomItemsAPI.invalidateCaches() is called. It is never modified once it
+ * has been published.
+ */
+final class CUIRecipeIndex{
+
+    private static final int MAX_COMBINATIONS = 64;
+    // RecipeChoice was added in 1.13. Before that, each ingredient is a single ItemStack
+    private static final boolean CHOICES = hasClass("org.bukkit.inventory.RecipeChoice");
+
+    private static volatile CUIRecipeIndex current;
+
+    private final CUIRegistry.Index registry;
+    private final Map<Integer, List<Recipe>> byResult = new HashMap<>();
+    private final Map<Integer, List<Recipe>> byIngredient = new HashMap<>();
+    private final Map<Shape, List<Pattern>> shapes = new HashMap<>();
+    // recipes with too many combinations to index, by the cells they use
+    private final Map<Shape, List<Pattern>> occupied = new HashMap<>();
+
+    private CUIRecipeIndex(CUIRegistry.Index registry){
+        this.registry = registry;
+
+        // a recipe can belong to more than one item, but is only indexed once
+        Set<Recipe> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        int order = 0;
+        for(CustomItem ci : registry.items){
+            CUIRegistry.Entry entry = registry.entries.get(ci);
+            if(entry == null){continue;}
+
+            List<GenericItemRecipe> recipes = GenericItemRecipeHandler.getRecipes(new GenericItem(ci, 1));
+            if(recipes == null){continue;}
+            for(GenericItemRecipe gir : recipes){
+                Recipe recipe = gir == null ? null : gir.getBukkitRecipe();
+                if(recipe == null){continue;}
+
+                byResult.computeIfAbsent(entry.ordinal, k -> new ArrayList<>()).add(recipe);
+                if(!seen.add(recipe)){continue;}
+
+                if(recipe instanceof ShapedRecipe){
+                    add(shaped((ShapedRecipe) recipe, order++));
+                }
+                else if(recipe instanceof ShapelessRecipe){
+                    add(shapeless((ShapelessRecipe) recipe, order++));
+                }
+            }
+        }
+
+        for(Map.Entry<Integer, List<Recipe>> entry : byResult.entrySet()){
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        for(Map.Entry<Integer, List<Recipe>> entry : byIngredient.entrySet()){
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+    }
+
+    static CUIRecipeIndex get(){
+        CUIRegistry.Index registry = CUIRegistry.index();
+        CUIRecipeIndex idx = current;
+        // building the index reads Custom Items and recipes, so other threads keep using the last index
+        if(idx != null && !Bukkit.isPrimaryThread()){return idx;}
+        if(idx == null || idx.registry != registry){
+            idx = new CUIRecipeIndex(registry);
+            current = idx;
+        }
+        return idx;
+    }
+
+    /**
+     * @return the recipes that make the Custom Item with the given ordinal
+     */
+    List<Recipe> byResult(int ordinal){
+        List<Recipe> list = byResult.get(ordinal);
+        return list == null ? Collections.emptyList() : list;
+    }
+
+    /**
+     * @return the recipes that use the Custom Item with the given ordinal
+     */
+    List<Recipe> byIngredient(int ordinal){
+        List<Recipe> list = byIngredient.get(ordinal);
+        return list == null ? Collections.emptyList() : list;
+    }
+
+    /**
+     * @param matrix - the crafting grid, row by row. Its length must be a square number, for example 9 or 4
+     * @return the first indexed recipe that matches the grid, or null if none does
+     */
+    Recipe match(ItemStack[] matrix){
+        int size = (int) Math.round(Math.sqrt(matrix.length));
+        if(size * size != matrix.length || (shapes.isEmpty() && occupied.isEmpty())){return null;}
+
+        long[] cells = new long[matrix.length];
+        for(int i = 0; i < matrix.length; i++){
+            cells[i] = isEmpty(matrix[i]) ? 0 : 1 + matrix[i].getType().ordinal();
+        }
+        Grid grid = new Grid(matrix, size);
+
+        Pattern first = first(null, shapes.get(Shape.trim(cells, size, size, false)), grid);
+        first = first(first, shapes.get(Shape.sorted(cells)), grid);
+        if(!occupied.isEmpty()){
+            for(int i = 0; i < cells.length; i++){
+                cells[i] = cells[i] == 0 ? 0 : 1;
+            }
+            first = first(first, occupied.get(Shape.trim(cells, size, size, false)), grid);
+            first = first(first, occupied.get(Shape.sorted(cells)), grid);
+        }
+        return first == null ? null : first.recipe;
+    }
+
+    /**
+     * @return the first of first and the candidates that matches grid. Candidates are in the order they were registered in
+     */
+    private static Pattern first(Pattern first, List<Pattern> candidates, Grid grid){
+        if(candidates == null){return first;}
+        for(Pattern pattern : candidates){
+            if(first != null && pattern.order >= first.order){break;}
+            if(pattern.matches(grid)){return pattern;}
+        }
+        return first;
+    }
+
+    private void add(Pattern pattern){
+        if(pattern == null){return;}
+
+        List<Integer> used = new ArrayList<>();
+        for(Ingredient ingredient : pattern.cells){
+            if(ingredient == null){continue;}
+            for(int ordinal : ingredient.custom){
+                if(!used.contains(ordinal)){used.add(ordinal);}
+            }
+        }
+        for(int ordinal : used){
+            byIngredient.computeIfAbsent(ordinal, k -> new ArrayList<>()).add(pattern.recipe);
+        }
+
+        Set<Shape> added = new HashSet<>();
+        Map<Shape, List<Pattern>> target = combinations(pattern.cells) > MAX_COMBINATIONS ? occupied : shapes;
+        for(long[] cells : keys(pattern.cells, target == occupied)){
+            if(pattern.width < 0){
+                added.add(Shape.sorted(cells));
+            }
+            else{
+                // shaped recipes also match when mirrored left to right
+                added.add(Shape.trim(cells, pattern.width, pattern.height, false));
+                added.add(Shape.trim(cells, pattern.width, pattern.height, true));
+            }
+        }
+        for(Shape shape : added){
+            target.computeIfAbsent(shape, k -> new ArrayList<>()).add(pattern);
+        }
+    }
+
+    /**
+     * @return the number of different grids of materials the cells accept, or Integer.MAX_VALUE if a cell accepts
+     * materials that are not known
+     */
+    private static int combinations(Ingredient[] cells){
+        long combinations = 1;
+        for(Ingredient ingredient : cells){
+            if(ingredient == null){continue;}
+            if(ingredient.materials == null || ingredient.materials.length == 0){return Integer.MAX_VALUE;}
+            combinations *= ingredient.materials.length;
+            if(combinations > MAX_COMBINATIONS){return Integer.MAX_VALUE;}
+        }
+        return (int) combinations;
+    }
+
+    /**
+     * @return every grid of keys the cells accept, or just the cells they use if occupancy is true
+     */
+    private static List<long[]> keys(Ingredient[] cells, boolean occupancy){
+        List<long[]> keys = new ArrayList<>();
+        int[] choice = new int[cells.length];
+        while(true){
+            long[] key = new long[cells.length];
+            for(int i = 0; i < cells.length; i++){
+                if(cells[i] != null){
+                    key[i] = occupancy ? 1 : 1 + cells[i].materials[choice[i]].ordinal();
+                }
+            }
+            keys.add(key);
+            if(occupancy){return keys;}
+
+            // count through every combination of choices, like an odometer
+            int i = 0;
+            for(; i < cells.length; i++){
+                if(cells[i] == null){continue;}
+                if(++choice[i] < cells[i].materials.length){break;}
+                choice[i] = 0;
+            }
+            if(i == cells.length){return keys;}
+        }
+    }
+
+    private static Pattern shaped(ShapedRecipe recipe, int order){
+        String[] rows = recipe.getShape();
+        Map<Character, Ingredient> ingredients = CHOICES ? CUIRecipeChoices.shaped(recipe) : legacy(recipe.getIngredientMap());
+        int width = 0;
+        for(String row : rows){
+            width = Math.max(width, row.length());
+        }
+
+        int minX = width, maxX = -1, minY = rows.length, maxY = -1;
+        for(int y = 0; y < rows.length; y++){
+            for(int x = 0; x < rows[y].length(); x++){
+                if(ingredients.get(rows[y].charAt(x)) == null){continue;}
+                minX = Math.min(minX, x);
+                maxX = Math.max(maxX, x);
+                minY = Math.min(minY, y);
+                maxY = Math.max(maxY, y);
+            }
+        }
+        if(maxX < 0){return null;}
+
+        int w = maxX - minX + 1;
+        int h = maxY - minY + 1;
+        Ingredient[] cells = new Ingredient[w * h];
+        for(int y = minY; y <= maxY; y++){
+            for(int x = minX; x <= maxX && x < rows[y].length(); x++){
+                cells[(y - minY) * w + x - minX] = ingredients.get(rows[y].charAt(x));
+            }
+        }
+        return new Pattern(recipe, order, w, h, cells);
+    }
+
+    private static Pattern shapeless(ShapelessRecipe recipe, int order){
+        List<Ingredient> ingredients = CHOICES ? CUIRecipeChoices.shapeless(recipe) : legacy(recipe.getIngredientList());
+        ingredients.removeIf(ingredient -> ingredient == null);
+        if(ingredients.isEmpty()){return null;}
+        return new Pattern(recipe, order, -1, 1, ingredients.toArray(new Ingredient[0]));
+    }
+
+    private static Map<Character, Ingredient> legacy(Map<Character, ItemStack> stacks){
+        Map<Character, Ingredient> ingredients = new HashMap<>();
+        for(Map.Entry<Character, ItemStack> entry : stacks.entrySet()){
+            if(!isEmpty(entry.getValue())){
+                ingredients.put(entry.getKey(), new LegacyIngredient(entry.getValue()));
+            }
+        }
+        return ingredients;
+    }
+
+    private static List<Ingredient> legacy(List<ItemStack> stacks){
+        List<Ingredient> ingredients = new ArrayList<>();
+        for(ItemStack stack : stacks){
+            if(!isEmpty(stack)){
+                ingredients.add(new LegacyIngredient(stack));
+            }
+        }
+        return ingredients;
+    }
+
+    static int ordinal(ItemStack stack){
+        return stack == null ? -1 : CUIRegistry.ordinal(CustomItemHandler.getCustomItem(stack));
+    }
+
+    static boolean isEmpty(ItemStack stack){
+        return stack == null || stack.getType() == Material.AIR;
+    }
+
+    private static boolean hasClass(String name){
+        try{
+            Class.forName(name);
+            return true;
+        }
+        catch(ClassNotFoundException ex){
+            return false;
+        }
+    }
+
+    /**
+     * What a recipe accepts in one cell
+     */
+    abstract static class Ingredient{
+
+        // the materials this accepts, or null if they are not known
+        final Material[] materials;
+        // the ordinals of the Custom Items this accepts
+        final int[] custom;
+
+        Ingredient(Material[] materials, int[] custom){
+            this.materials = materials;
+            this.custom = custom;
+        }
+
+        /**
+         * @param stack - a stack that is not empty
+         * @param ordinal - the Custom Item ordinal of stack, or -1 if it is not a Custom Item
+         * @return true iff this accepts stack. Custom Items are only accepted by ingredients that ask for them
+         */
+        abstract boolean test(ItemStack stack, int ordinal);
+
+        final boolean acceptsCustom(int ordinal){
+            for(int c : custom){
+                if(c == ordinal){return true;}
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A single ItemStack ingredient, from before 1.13. A durability of Short.MAX_VALUE accepts any data value
+     */
+    private static final class LegacyIngredient extends Ingredient{
+
+        private final short data;
+
+        LegacyIngredient(ItemStack stack){
+            super(new Material[]{stack.getType()}, customOf(stack));
+            this.data = stack.getDurability();
+        }
+
+        private static int[] customOf(ItemStack stack){
+            int ordinal = ordinal(stack);
+            return ordinal >= 0 ? new int[]{ordinal} : new int[0];
+        }
+
+        @Override
+        boolean test(ItemStack stack, int ordinal){
+            if(stack.getType() != materials[0]){return false;}
+            if(custom.length > 0 || ordinal >= 0){return acceptsCustom(ordinal);}
+            return data == Short.MAX_VALUE || data == stack.getDurability();
+        }
+    }
+
+    /**
+     * The crafting grid being matched, trimmed to the cells that are not empty
+     */
+    private static final class Grid{
+
+        final ItemStack[] stacks;
+        final int[] ordinals;
+        final int size;
+        int minX, minY, width, height, count;
+
+        Grid(ItemStack[] matrix, int size){
+            this.stacks = matrix;
+            this.ordinals = new int[matrix.length];
+            this.size = size;
+
+            int maxX = -1, maxY = -1;
+            minX = size;
+            minY = size;
+            for(int i = 0; i < matrix.length; i++){
+                if(isEmpty(matrix[i])){continue;}
+                ordinals[i] = ordinal(matrix[i]);
+                count++;
+                minX = Math.min(minX, i % size);
+                maxX = Math.max(maxX, i % size);
+                minY = Math.min(minY, i / size);
+                maxY = Math.max(maxY, i / size);
+            }
+            this.width = maxX - minX + 1;
+            this.height = maxY - minY + 1;
+        }
+    }
+
+    /**
+     * A shaped or shapeless recipe, with what it accepts in each cell
+     */
+    private static final class Pattern{
+
+        final Recipe recipe;
+        // the position of the recipe in the index, in registry order
+        final int order;
+        // width is -1 for shapeless recipes, whose cells are in no particular order
+        final int width;
+        final int height;
+        // null for empty cells
+        final Ingredient[] cells;
+
+        Pattern(Recipe recipe, int order, int width, int height, Ingredient[] cells){
+            this.recipe = recipe;
+            this.order = order;
+            this.width = width;
+            this.height = height;
+            this.cells = cells;
+        }
+
+        boolean matches(Grid grid){
+            if(width < 0){
+                return grid.count == cells.length && assign(grid, 0, new boolean[grid.stacks.length]);
+            }
+            if(grid.width != width || grid.height != height){return false;}
+            return matches(grid, false) || matches(grid, true);
+        }
+
+        private boolean matches(Grid grid, boolean mirror){
+            for(int y = 0; y < height; y++){
+                for(int x = 0; x < width; x++){
+                    Ingredient ingredient = cells[y * width + (mirror ? width - 1 - x : x)];
+                    int i = (grid.minY + y) * grid.size + grid.minX + x;
+                    if(ingredient == null ? !isEmpty(grid.stacks[i]) : isEmpty(grid.stacks[i]) || !ingredient.test(grid.stacks[i], grid.ordinals[i])){
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Tries to give each ingredient from the given one onwards its own stack from the grid
+         */
+        private boolean assign(Grid grid, int ingredient, boolean[] taken){
+            if(ingredient == cells.length){return true;}
+            for(int i = 0; i < grid.stacks.length; i++){
+                if(taken[i] || isEmpty(grid.stacks[i]) || !cells[ingredient].test(grid.stacks[i], grid.ordinals[i])){continue;}
+                taken[i] = true;
+                if(assign(grid, ingredient + 1, taken)){return true;}
+                taken[i] = false;
+            }
+            return false;
+        }
+    }
+
+    private static final class Shape{
+
+        // width is -1 for shapeless recipes, whose cells are sorted instead
+        final int width;
+        final long[] cells;
+        final int hash;
+
+        private Shape(int width, long[] cells){
+            this.width = width;
+            this.cells = cells;
+            this.hash = 31 * width + Arrays.hashCode(cells);
+        }
+
+        static Shape trim(long[] cells, int width, int height, boolean mirror){
+            int minX = width, maxX = -1, minY = height, maxY = -1;
+            for(int y = 0; y < height; y++){
+                for(int x = 0; x < width; x++){
+                    if(cells[y * width + x] == 0){continue;}
+                    minX = Math.min(minX, x);
+                    maxX = Math.max(maxX, x);
+                    minY = Math.min(minY, y);
+                    maxY = Math.max(maxY, y);
+                }
+            }
+            if(maxX < 0){return new Shape(0, new long[0]);}
+
+            int w = maxX - minX + 1;
+            long[] trimmed = new long[w * (maxY - minY + 1)];
+            for(int y = minY; y <= maxY; y++){
+                for(int x = minX; x <= maxX; x++){
+                    int tx = mirror ? maxX - x : x - minX;
+                    trimmed[(y - minY) * w + tx] = cells[y * width + x];
+                }
+            }
+            return new Shape(w, trimmed);
+        }
+
+        static Shape sorted(long[] cells){
+            int count = 0;
+            for(long cell : cells){
+                if(cell != 0){count++;}
+            }
+            long[] sorted = new long[count];
+            int i = 0;
+            for(long cell : cells){
+                if(cell != 0){sorted[i++] = cell;}
+            }
+            Arrays.sort(sorted);
+            return new Shape(-1, sorted);
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(this == o){return true;}
+            if(!(o instanceof Shape)){return false;}
+            Shape other = (Shape) o;
+            return width == other.width && hash == other.hash && Arrays.equals(cells, other.cells);
+        }
+
+        @Override
+        public int hashCode(){
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.jojodmo.customitems.api;
+
+import com.jojodmo.customitems.item.custom.CustomItem;
+import com.jojodmo.customitems.item.custom.handler.CustomItemHandler;
+
+import org.bukkit.Bukkit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index over the Custom Item registry used by the API.
+ *
+ * The index is built lazily on the main thread from CustomItemHandler.allCustomItems, and is never modified once it
+ * has been published, so it can be read from any thread. It is the only place IDs are looked up, so an ID it does not know is a miss.
+ *
+ * Registering an item through CUIItemMaker calls invalidate(). A reload creates a new CustomItem for every item, so
+ * on the main thread the index also checks, without allocating, that allCustomItems is the same list with the same
+ * size and the same first and last items, and that an item it finds is still the one in its slot. If any of those
+ * changed, the index is rebuilt.
+ */
+final class CUIRegistry{
+
+    private static final AtomicLong version = new AtomicLong();
+    private static long builds;
+    private static volatile Index index;
+
+    // ordinals and handles are only written while holding the class lock, and are never reused for another ID
+    private static final Map<String, Integer> ordinals = new HashMap<>();
+    private static volatile CUIItem[] handles = new CUIItem[64];
+
+    private static final Index EMPTY = new Index(-1, Collections.<CustomItem>emptyList(), 0);
+
+    private CUIRegistry(){}
+
+    /**
+     * Marks the registry as changed. The index is rebuilt the next time it is used.
+     */
+    static void invalidate(){
+        version.incrementAndGet();
+    }
+
+    static Index index(){
+        Index idx = index;
+        // the registry is only changed on the main thread, so other threads keep using the last published index
+        // instead of reading it while it may be changing. Building an index asks items for their details, which is
+        // not thread-safe, so until the main thread has built one, other threads see an empty registry
+        if(!Bukkit.isPrimaryThread()){return idx == null ? EMPTY : idx;}
+        if(idx == null || !idx.isCurrent(version.get(), CustomItemHandler.allCustomItems)){
+            idx = rebuild();
+        }
+        return idx;
+    }
+
+    private static synchronized Index rebuild(){
+        long v = version.get();
+        List<CustomItem> source = CustomItemHandler.allCustomItems;
+        Index idx = index;
+        if(idx != null && idx.isCurrent(v, source)){return idx;}
+
+        idx = new Index(v, source, ++builds);
+        for(int i = 0; i < ordinals.size(); i++){
+            CUIItem handle = handles[i];
+            if(handle != null && !idx.entries.containsKey(handle.getWrapped())){
+                handle.setWrapped(null);
+            }
+        }
+        index = idx;
+        return idx;
+    }
+
+    /**
+     * Gets the interned handle for ci, creating it if ci has never been registered before.
+     * Must be called while holding the class lock
+     */
+    private static CUIItem handle(CustomItem ci){
+        int ordinal = ordinals.computeIfAbsent(ci.getId(), k -> ordinals.size());
+        if(ordinal >= handles.length){
+            handles = Arrays.copyOf(handles, Math.max(handles.length * 2, ordinal + 1));
+        }
+
+        CUIItem handle = handles[ordinal];
+        if(handle == null){
+            handle = new CUIItem(ci, ordinal);
+            handles[ordinal] = handle;
+        }
+        else{
+            handle.setWrapped(ci);
+        }
+        return handle;
+    }
+
+    /**
+     * @param id - the ID of the Custom Item to get, Case-sensitive if caseSensitive is true
+     * @param caseSensitive - set to true to make sure the item's ID matches id case-sensitively
+     * @return the Custom Item with the ID id, or null if it does not exist
+     */
+    static CustomItem get(String id, boolean caseSensitive){
+        Entry entry = entry(id, caseSensitive);
+        return entry == null ? null : entry.item;
+    }
+
+    static Entry entry(String id, boolean caseSensitive){
+        if(id == null || id.length() == 0){return null;}
+        return find(id, 0, caseSensitive);
+    }
+
+    /**
+     * Same as entry(id, caseSensitive), but also accepts IDs prefixed with customitem:, customitems:, cui: or cuis:
+     */
+    static Entry resolve(String id, boolean caseSensitive){
+        if(id == null || id.length() == 0){return null;}
+        Entry entry = find(id, 0, caseSensitive);
+        if(entry != null){return entry;}
+
+        int start = aliasLength(id, !caseSensitive);
+        return start > 0 ? find(id, start, caseSensitive) : null;
+    }
+
+    /**
+     * Looks up the ID starting at start. A miss does not allocate anything
+     */
+    private static Entry find(String id, int start, boolean caseSensitive){
+        Index idx = index();
+        Entry entry = idx.find(id, start, caseSensitive);
+        if(entry != null && idx.replaced(entry)){
+            // the item was reloaded without changing anything index() checks
+            invalidate();
+            entry = index().find(id, start, caseSensitive);
+        }
+        return entry;
+    }
+
+    /**
+     * @return the registry entry for ci, or null if ci is not registered
+     */
+    static Entry entry(CustomItem ci){
+        return ci == null ? null : index().entries.get(ci);
+    }
+
+    /**
+     * @return the ordinal of ci, or -1 if ci is not registered
+     */
+    static int ordinal(CustomItem ci){
+        Entry entry = entry(ci);
+        return entry == null ? -1 : entry.ordinal;
+    }
+
+    /**
+     * @return the Custom Item that currently has the given ordinal, or null if it is not registered
+     */
+    static CustomItem item(int ordinal){
+        index();
+        CUIItem[] handles = CUIRegistry.handles;
+        CUIItem handle = ordinal >= 0 && ordinal < handles.length ? handles[ordinal] : null;
+        return handle == null ? null : handle.getWrapped();
+    }
+
+    /**
+     * Matches ^([Cc]ustom[Ii]tems?|[Cc][Uu][Ii]s?):(.+)$ without using a regex. If ignoreCase is true, the whole
+     * namespace is matched case-insensitively, the same as matching the lowercased ID
+     * @return the index of the first character after the namespace, or 0 if id has no namespace
+     */
+    static int aliasLength(String id, boolean ignoreCase){
+        int length = id.length();
+        if(length < 5 || (id.charAt(0) != 'C' && id.charAt(0) != 'c')){return 0;}
+
+        int i;
+        if(length > 11 && id.regionMatches(ignoreCase, 1, "ustom", 0, 5) && (id.charAt(6) == 'I' || id.charAt(6) == 'i') && id.regionMatches(ignoreCase, 7, "tem", 0, 3)){
+            i = 10;
+        }
+        else if((id.charAt(1) == 'U' || id.charAt(1) == 'u') && (id.charAt(2) == 'I' || id.charAt(2) == 'i')){
+            i = 3;
+        }
+        else{
+            return 0;
+        }
+
+        if(id.charAt(i) == 's' || (ignoreCase && id.charAt(i) == 'S')){i++;}
+        return i < length - 1 && id.charAt(i) == ':' ? i + 1 : 0;
+    }
+
+    private static int fold(char c){
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    static final class Entry{
+
+        final CustomItem item;
+        final CUIItem handle;
+        final int ordinal;
+        // the index of item in allCustomItems when the index was built
+        final int position;
+
+        private Entry(CustomItem item, CUIItem handle, int position){
+            this.item = item;
+            this.handle = handle;
+            this.ordinal = handle.getOrdinal();
+            this.position = position;
+        }
+    }
+
+    static final class Index{
+
+        final long version;
+        final List<CustomItem> source;
+        final int size;
+        private final CustomItem first;
+        private final CustomItem last;
+        final CUIRegistrySnapshot snapshot;
+        // the items as they were when this index was built, in registry order
+        final List<CustomItem> items;
+        final Map<CustomItem, Entry> entries = new IdentityHashMap<>();
+
+        private final int mask;
+        private final Entry[] exact;
+        private final Entry[] folded;
+        private final String[] exactKeys;
+        private final String[] foldedKeys;
+
+        private Index(long version, List<CustomItem> source, long build){
+            this.version = version;
+            this.source = source;
+            this.size = source.size();
+            this.first = size == 0 ? null : source.get(0);
+            this.last = size == 0 ? null : source.get(size - 1);
+
+            this.items = Collections.unmodifiableList(new ArrayList<>(source));
+            this.snapshot = new CUIRegistrySnapshot(build, items);
+
+            int count = items.size();
+
+            int capacity = 16;
+            while(capacity < count * 2){capacity <<= 1;}
+            this.mask = capacity - 1;
+            this.exact = new Entry[capacity];
+            this.folded = new Entry[capacity];
+            this.exactKeys = new String[capacity];
+            this.foldedKeys = new String[capacity];
+
+            for(int i = 0; i < count; i++){
+                CustomItem ci = items.get(i);
+                String id = ci.getId();
+                if(id == null || id.length() == 0 || entries.containsKey(ci)){continue;}
+                Entry entry = new Entry(ci, handle(ci), i);
+                entries.put(ci, entry);
+                insert(exact, exactKeys, entry, id, false);
+                insert(folded, foldedKeys, entry, id, true);
+            }
+        }
+
+        /**
+         * Must be called on the main thread
+         * @return true iff nothing has changed since this index was built, as far as can be told without going through every item
+         */
+        boolean isCurrent(long version, List<CustomItem> source){
+            if(this.version != version || this.source != source){return false;}
+            int size = source.size();
+            return size == this.size && (size == 0 || (source.get(0) == first && source.get(size - 1) == last));
+        }
+
+        /**
+         * @return true iff the item entry was built for is no longer in its slot of allCustomItems. Only checked on the main thread
+         */
+        boolean replaced(Entry entry){
+            return Bukkit.isPrimaryThread() && source.get(entry.position) != entry.item;
+        }
+
+        private void insert(Entry[] table, String[] keys, Entry entry, String id, boolean ignoreCase){
+            int slot = hash(id, 0, ignoreCase) & mask;
+            while(keys[slot] != null){
+                if(matches(keys[slot], id, 0, ignoreCase)){return;}
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = id;
+            table[slot] = entry;
+        }
+
+        Entry find(String id, int start, boolean caseSensitive){
+            boolean ignoreCase = !caseSensitive;
+            Entry[] table = ignoreCase ? folded : exact;
+            String[] keys = ignoreCase ? foldedKeys : exactKeys;
+
+            int slot = hash(id, start, ignoreCase) & mask;
+            String key;
+            while((key = keys[slot]) != null){
+                if(matches(key, id, start, ignoreCase)){return table[slot];}
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        private static boolean matches(String key, String id, int start, boolean ignoreCase){
+            int length = key.length();
+            return length == id.length() - start && key.regionMatches(ignoreCase, 0, id, start, length);
+        }
+
+        private static int hash(String s, int start, boolean ignoreCase){
+            int h = 0;
+            for(int i = start; i < s.length(); i++){
+                h = 31 * h + (ignoreCase ? fold(s.charAt(i)) : s.charAt(i));
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.jojodmo.customitems.api;
+
+import com.jojodmo.customitems.item.custom.CustomItem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable view of the Custom Item registry at one point in time.
+ *
+ * CustomItemsAPI.getRegistrySnapshot() returns the same snapshot until the registry changes. Every new snapshot
+ * has a higher version, so you can compare versions to skip work when nothing has changed.
+ */
+public final class CUIRegistrySnapshot{
+
+    private final long version;
+    private final List<CustomItem> items;
+    private final List<String> ids;
+    private final List<String> blockIDs;
+    private final CUISearchIndex search;
+
+    /**
+     * Must be called on the main thread, since it asks every item whether it can be placed and what its name is
+     */
+    CUIRegistrySnapshot(long version, List<CustomItem> items){
+        this.version = version;
+        this.items = items;
+
+        List<String> ids = new ArrayList<>(items.size());
+        List<String> blockIDs = new ArrayList<>();
+        for(CustomItem ci : items){
+            ids.add(ci.getId());
+            if(ci.canBePlaced()){
+                blockIDs.add(ci.getId());
+            }
+        }
+        this.ids = Collections.unmodifiableList(ids);
+        this.blockIDs = Collections.unmodifiableList(blockIDs);
+        this.search = new CUISearchIndex(items);
+    }
+
+    /**
+     * @return the version of this snapshot. A snapshot taken after the registry changes always has a higher version
+     */
+    public long getVersion(){
+        return version;
+    }
+
+    /**
+     * @param other - another snapshot, or null
+     * @return true iff other is null or older than this snapshot
+     */
+    public boolean isNewerThan(CUIRegistrySnapshot other){
+        return other == null || this.version > other.version;
+    }
+
+    /**
+     * @return an unmodifiable list of all valid Custom Item IDs on the server
+     */
+    public List<String> getCustomItemIDs(){
+        return ids;
+    }
+
+    /**
+     * @return an unmodifiable list of all valid Custom Item IDs for blocks on the server
+     */
+    public List<String> getBlockCustomItemIDs(){
+        return blockIDs;
+    }
+
+    CUISearchIndex search(){
+        return search;
+    }
+}
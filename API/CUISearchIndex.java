@@ -0,0 +1,184 @@
+package com.jojodmo.customitems.api;
+
+import com.jojodmo.customitems.item.custom.CustomItem;
+import org.bukkit.ChatColor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Sorted index over the lowercase IDs and friendly names of the Custom Items in a registry snapshot,
+ * used for tab completion and item browsers.
+ */
+final class CUISearchIndex{
+
+    private final String[] ids;
+    private final String[] keys;
+    private final int[] owners;
+
+    CUISearchIndex(List<CustomItem> items){
+        this.ids = new String[items.size()];
+        List<Key> list = new ArrayList<>(items.size() * 2);
+        for(int i = 0; i < items.size(); i++){
+            CustomItem ci = items.get(i);
+            ids[i] = ci.getId();
+            list.add(new Key(ci.getId().toLowerCase(Locale.ROOT), i));
+
+            String name = ci.getItemName();
+            if(name != null){
+                name = ChatColor.stripColor(name).toLowerCase(Locale.ROOT);
+                if(name.length() > 0 && !name.equals(list.get(list.size() - 1).key)){
+                    list.add(new Key(name, i));
+                }
+            }
+        }
+
+        Key[] sorted = list.toArray(new Key[0]);
+        Arrays.sort(sorted, (a, b) -> a.key.compareTo(b.key));
+        this.keys = new String[sorted.length];
+        this.owners = new int[sorted.length];
+        for(int i = 0; i < sorted.length; i++){
+            keys[i] = sorted[i].key;
+            owners[i] = sorted[i].owner;
+        }
+    }
+
+    /**
+     * @return up to limit IDs of items whose ID or friendly name starts with prefix, in alphabetical order of the match
+     */
+    List<String> prefix(String prefix, int limit){
+        String p = prefix.toLowerCase(Locale.ROOT);
+        // every ID is returned at most once, so there can not be more results than IDs
+        limit = Math.min(limit, ids.length);
+        List<String> result = new ArrayList<>(Math.min(limit, 16));
+        int[] found = new int[limit];
+
+        for(int i = lowerBound(p); i < keys.length && result.size() < limit && keys[i].startsWith(p); i++){
+            int owner = owners[i];
+            if(indexOf(found, result.size(), owner) < 0){
+                found[result.size()] = owner;
+                result.add(ids[owner]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return up to limit IDs of items whose ID or friendly name best matches query, best match first. A key only
+     * matches if it contains every character of query in order
+     */
+    List<String> fuzzy(String query, int limit){
+        String q = query.toLowerCase(Locale.ROOT);
+        limit = Math.min(limit, ids.length);
+        int[] topOwners = new int[limit];
+        int[] topScores = new int[limit];
+        int count = 0;
+
+        for(int i = 0; i < keys.length; i++){
+            int score = score(keys[i], q);
+            if(score <= 0){continue;}
+
+            int owner = owners[i];
+            int existing = indexOf(topOwners, count, owner);
+            if(existing >= 0){
+                topScores[existing] = Math.max(topScores[existing], score);
+                continue;
+            }
+            if(count < limit){
+                topOwners[count] = owner;
+                topScores[count] = score;
+                count++;
+                continue;
+            }
+
+            int worst = 0;
+            for(int j = 1; j < count; j++){
+                if(topScores[j] < topScores[worst]){worst = j;}
+            }
+            if(score > topScores[worst]){
+                topOwners[worst] = owner;
+                topScores[worst] = score;
+            }
+        }
+
+        // insertion sort, since count is at most limit
+        for(int i = 1; i < count; i++){
+            int owner = topOwners[i];
+            int score = topScores[i];
+            int j = i - 1;
+            for(; j >= 0 && topScores[j] < score; j--){
+                topOwners[j + 1] = topOwners[j];
+                topScores[j + 1] = topScores[j];
+            }
+            topOwners[j + 1] = owner;
+            topScores[j + 1] = score;
+        }
+
+        List<String> result = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            result.add(ids[topOwners[i]]);
+        }
+        return result;
+    }
+
+    /**
+     * Scores how well key matches query. Consecutive characters, characters at the start of a word and a matching
+     * prefix score higher, and shorter keys win ties
+     * @return the score, or 0 if key does not contain every character of query in order
+     */
+    static int score(String key, String query){
+        int score = 0;
+        int streak = 0;
+        int from = 0;
+        for(int i = 0; i < query.length(); i++){
+            int at = key.indexOf(query.charAt(i), from);
+            if(at < 0){return 0;}
+
+            streak = at == from && i > 0 ? streak + 1 : 0;
+            score += 1 + streak * 2;
+            if(at == 0 || isSeparator(key.charAt(at - 1))){
+                score += 3;
+            }
+            from = at + 1;
+        }
+        if(key.startsWith(query)){
+            score += 10;
+        }
+        return score * 128 + (127 - Math.min(key.length(), 127));
+    }
+
+    private static boolean isSeparator(char c){
+        return c == '_' || c == '-' || c == ' ' || c == ':' || c == '.';
+    }
+
+    private int lowerBound(String prefix){
+        int low = 0;
+        int high = keys.length;
+        while(low < high){
+            int mid = (low + high) >>> 1;
+            if(keys[mid].compareTo(prefix) < 0){low = mid + 1;}
+            else{high = mid;}
+        }
+        return low;
+    }
+
+    private static int indexOf(int[] array, int length, int value){
+        for(int i = 0; i < length; i++){
+            if(array[i] == value){return i;}
+        }
+        return -1;
+    }
+
+    private static final class Key{
+
+        final String key;
+        final int owner;
+
+        Key(String key, int owner){
+            this.key = key;
+            this.owner = owner;
+        }
+    }
+}
@@ -28,21 +28,42 @@ import com.jojodmo.customitems.util.classes.CUIPlugin;
 import com.jojodmo.customitems.util.classes.DoubleTuple;
 import com.jojodmo.customitems.version.SafeMaterial;
 import org.bukkit.ChatColor;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.entity.Player;
 import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+import org.bukkit.inventory.Recipe;
 
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * CustomItems API
  *
  * Most of these API functions will only work if the plugin is enabled.
  * Use the isEnabled() method to check if the plugin is enabled.
+ *
+ * Unless a method says otherwise, it must be called from the main thread. These methods can also be called from
+ * other threads:
+ *  - getRegistrySnapshot, listCustomItemIDs, listBlockCustomItemIDs, searchCustomItemIDs, fuzzySearchCustomItemIDs and
+ *    getCustomItemHandle. From other threads, these see the registry as of the last time it was used on the main thread,
+ *    or an empty registry if it has not been used there yet
+ *  - waitForCustomItemOrdinalAtBlock, which asks the main thread to look the block up and waits for it, so avoid calling
+ *    it often from other threads
+ * Methods that read ItemStacks or Custom Item details, such as getCustomItemID, isCustomItem, getCustomItemIDs and
+ * getCustomItemFriendlyName, use parts of CustomItems that are not thread-safe, so they must be called from the main thread.
  */
 public class CustomItemsAPI{
 
@@ -59,7 +80,45 @@ public class CustomItemsAPI{
         }
     }
 
-    //TODO: ALLOW GETTING RECIPES OF CUSTOM ITEMS
+    /**
+     * Discards everything the API has cached about the Custom Item registry. Items registered through CUIItemMaker, and
+     * reloads that create the items again, are noticed without this. Call it after changing CustomItemHandler.allCustomItems
+     * in any other way, for example replacing an item in the middle of the list, or after changing a Custom Item's recipes,
+     * so that the change is seen right away.
+     */
+    public static void invalidateCaches(){
+        CUIRegistry.invalidate();
+    }
+
+    /**
+     * Listen for custom blocks that are placed, removed or replaced through the API, by players or by the world.
+     * Changes are collected during each tick and delivered together on the next tick, so listeners can keep their own
+     * copy of custom block state up to date without polling getCustomItemIDAtBlock. Changes that do not come from the API
+     * or a Bukkit event, such as custom item actions or other plugins editing the world, are only delivered if whatever
+     * makes them calls notifyCustomBlockChanging first.
+     * @param listener - the listener to add
+     */
+    public static void addCustomBlockChangeListener(CUIBlockChangeListener listener){
+        CUIBlockFeed.addListener(listener);
+    }
+
+    /**
+     * @param listener - the listener to remove
+     * @return true iff the listener was registered
+     */
+    public static boolean removeCustomBlockChangeListener(CUIBlockChangeListener listener){
+        return CUIBlockFeed.removeListener(listener);
+    }
+
+    /**
+     * Tell the API that a custom block is about to be placed, removed or replaced without going through the API or a
+     * Bukkit event, so that CUIBlockChangeListeners hear about it. CustomItems does not call this itself yet, so changes
+     * it makes to custom blocks outside of events are not delivered. Must be called on the main thread, before the change
+     * @param block - the block that is about to change
+     */
+    public static void notifyCustomBlockChanging(Block block){
+        CUIBlockFeed.changing(block);
+    }
 
     /**
      * Most API functions will only work if the plugin is enabled (if this functions returns true)
@@ -74,8 +133,14 @@ public class CustomItemsAPI{
      * @return the ID of the Custom Item, or null of stack is not a Custom Item
      */
     public static String getCustomItemID(ItemStack stack){
-        CustomItem ci = CustomItemHandler.getCustomItem(stack);
-        return ci == null ? null : ci.getId();
+        long t = CUIMetrics.start();
+        try{
+            CustomItem ci = CustomItemHandler.getCustomItem(stack);
+            return ci == null ? null : ci.getId();
+        }
+        finally{
+            CUIMetrics.end("getCustomItemID", t);
+        }
     }
 
     /*
@@ -102,7 +167,7 @@ public class CustomItemsAPI{
      * @return the ItemStack for the Custom Item with the ID id, or null if the Custom Item does not exist
      */
     public static ItemStack getCustomItem(String id, int amount){
-        return getCustomItem(id == null ? null : id.toLowerCase(), amount, false);
+        return getCustomItem(id, amount, false);
     }
 
     /**
@@ -114,55 +179,177 @@ public class CustomItemsAPI{
      * @return the ItemStack for the Custom Item with the ID id, or null if the Custom Item does not exist
      */
     public static ItemStack getCustomItem(String id, int amount, boolean caseSensitive){
-        if(id == null || id.length() == 0){return null;}
-        CustomItem ci = CustomItem.get(id, !caseSensitive);
-        if(ci == null){
-            id = id.replaceAll("^([Cc]ustom[Ii]tems?|[Cc][Uu][Ii]s?):(.+)$", "$2");
-            ci = CustomItem.get(id, !caseSensitive);
+        long t = CUIMetrics.start();
+        try{
+            CUIRegistry.Entry entry = CUIRegistry.resolve(id, caseSensitive);
+            return entry == null ? null : entry.item.getAmountItemStack(amount);
+        }
+        finally{
+            CUIMetrics.end("getCustomItem", t);
         }
-        return ci == null ? null : ci.getAmountItemStack(amount);
     }
 
     /**
      * Lists all valid Custom Item IDs on the server. You can then get an ItemStack for each item using getCustomItem(String id)
+     * This returns a new list every time it is called. Use getRegistrySnapshot() to avoid the copy
      **/
     public static List<String> listCustomItemIDs(){
-        List<String> result = new ArrayList<>();
-        for(CustomItem ci : CustomItemHandler.allCustomItems){
-            result.add(ci.getId());
+        long t = CUIMetrics.start();
+        try{
+            return new ArrayList<>(getRegistrySnapshot().getCustomItemIDs());
+        }
+        finally{
+            CUIMetrics.end("listCustomItemIDs", t);
         }
-        return result;
     }
 
     /**
      * Lists all valid Custom Item IDs for blocks on the server. You can then get an ItemStack for each item using getCustomItem(String id)
+     * This returns a new list every time it is called. Use getRegistrySnapshot() to avoid the copy
      **/
     public static List<String> listBlockCustomItemIDs(){
-        List<String> result = new ArrayList<>();
-        for(CustomItem ci : CustomItemHandler.allCustomItems){
-            if(ci.canBePlaced()){
-                result.add(ci.getId());
-            }
+        long t = CUIMetrics.start();
+        try{
+            return new ArrayList<>(getRegistrySnapshot().getBlockCustomItemIDs());
+        }
+        finally{
+            CUIMetrics.end("listBlockCustomItemIDs", t);
         }
-        return result;
     }
 
-//    /*
-//    *
-//    * RECIPES
-//    *
-//     */
-//
-//    public static  List<Recipe> getCustomItemRecipes(String id){
-//        return getCustomItemRecipes(id, false);
-//    }
-//
-//    public static List<Recipe> getCustomItemRecipes(String id, boolean caseSensitive){
-//        CustomItem ci = CustomItem.get(id, !caseSensitive);
-//        if(ci == null){return null;}
-//        GenericItem gi = new GenericItem(ci, 1);
-//        List<GenericItemRecipe> rl = GenericItemRecipeHandler.getRecipes(gi);
-//    }
+    /**
+     * Get an immutable snapshot of the Custom Item registry. The same snapshot is returned until the registry changes,
+     * so this is cheap to call as often as you like.
+     * @return the current registry snapshot. Compare its version with an older snapshot to check if anything changed
+     */
+    public static CUIRegistrySnapshot getRegistrySnapshot(){
+        long t = CUIMetrics.start();
+        try{
+            return CUIRegistry.index().snapshot;
+        }
+        finally{
+            CUIMetrics.end("getRegistrySnapshot", t);
+        }
+    }
+
+    /**
+     * Find the Custom Items whose ID or friendly name starts with prefix, case-insensitive. This is meant for tab completion,
+     * and does not go through the full list of IDs
+     * @param prefix - the text to search for
+     * @param limit - the most IDs to return
+     * @return up to limit matching Custom Item IDs, in alphabetical order of the ID or name that matched
+     */
+    public static List<String> searchCustomItemIDs(String prefix, int limit){
+        long t = CUIMetrics.start();
+        try{
+            if(prefix == null || limit <= 0){return new ArrayList<>();}
+            return getRegistrySnapshot().search().prefix(prefix, limit);
+        }
+        finally{
+            CUIMetrics.end("searchCustomItemIDs", t);
+        }
+    }
+
+    /**
+     * Find the Custom Items whose ID or friendly name best match query, case-insensitive. An item matches if its ID or name
+     * contains every character of query in order, so "dsw" matches "diamond_sword". Consecutive characters, the start
+     * of words and exact prefixes count the most
+     * @param query - the text to search for
+     * @param limit - the most IDs to return
+     * @return up to limit matching Custom Item IDs, best match first
+     */
+    public static List<String> fuzzySearchCustomItemIDs(String query, int limit){
+        long t = CUIMetrics.start();
+        try{
+            if(query == null || limit <= 0){return new ArrayList<>();}
+            return getRegistrySnapshot().search().fuzzy(query, limit);
+        }
+        finally{
+            CUIMetrics.end("fuzzySearchCustomItemIDs", t);
+        }
+    }
+
+    /*
+    *
+    * RECIPES
+    *
+     */
+
+    /**
+     * Alias for getCustomItemRecipes(id, false)
+     * @param id - the ID of the Custom Item, case-insensitive
+     * @return the recipes that make the Custom Item, or null if the Custom Item does not exist
+     */
+    public static List<Recipe> getCustomItemRecipes(String id){
+        return getCustomItemRecipes(id, false);
+    }
+
+    /**
+     * Get every recipe that CustomItems has for a Custom Item, from GenericItemRecipeHandler. Recipes are
+     * indexed whenever Custom Items are registered or reloaded, so this does not go through every recipe. Recipes that
+     * other plugins register are not included. If a Custom Item's recipes are changed in any other way, call
+     * invalidateCaches() so that the change is seen.
+     * @param id - the ID of the Custom Item. Case-sensitive if caseSensitive is true
+     * @param caseSensitive - set to true to make sure the item's ID matches id case-sensitively
+     * @return the recipes that make the Custom Item, or null if the Custom Item does not exist. This list can not be modified
+     */
+    public static List<Recipe> getCustomItemRecipes(String id, boolean caseSensitive){
+        long t = CUIMetrics.start();
+        try{
+            CUIRegistry.Entry entry = CUIRegistry.entry(id, caseSensitive);
+            if(entry == null){return null;}
+            return CUIRecipeIndex.get().byResult(entry.ordinal);
+        }
+        finally{
+            CUIMetrics.end("getCustomItemRecipes", t);
+        }
+    }
+
+    /**
+     * Alias for getRecipesUsingCustomItem(id, false)
+     * @param id - the ID of the Custom Item, case-insensitive
+     * @return the recipes that use the Custom Item as an ingredient, or null if the Custom Item does not exist
+     */
+    public static List<Recipe> getRecipesUsingCustomItem(String id){
+        return getRecipesUsingCustomItem(id, false);
+    }
+
+    /**
+     * Get every Custom Item recipe that uses a Custom Item as an ingredient. Like getCustomItemRecipes, this only covers the
+     * recipes of Custom Items
+     * @param id - the ID of the Custom Item. Case-sensitive if caseSensitive is true
+     * @param caseSensitive - set to true to make sure the item's ID matches id case-sensitively
+     * @return the recipes that use the Custom Item as an ingredient, or null if the Custom Item does not exist. This list can not be modified
+     */
+    public static List<Recipe> getRecipesUsingCustomItem(String id, boolean caseSensitive){
+        long t = CUIMetrics.start();
+        try{
+            CUIRegistry.Entry entry = CUIRegistry.entry(id, caseSensitive);
+            if(entry == null){return null;}
+            return CUIRecipeIndex.get().byIngredient(entry.ordinal);
+        }
+        finally{
+            CUIMetrics.end("getRecipesUsingCustomItem", t);
+        }
+    }
+
+    /**
+     * Find the Custom Item recipe that matches a crafting grid. The grid's materials are hashed to find the few recipes that
+     * could match it, and only those are checked in full, including every material an ingredient accepts, item data, and
+     * which Custom Item each cell holds. This is cheap enough to call from PrepareItemCraftEvent. If several recipes match,
+     * the one belonging to the Custom Item that was registered first is returned.
+     * @param matrix - the crafting grid, row by row, for example CraftingInventory.getMatrix(). 3x3 and 2x2 grids are supported
+     * @return the matching recipe, or null if no Custom Item recipe matches the grid
+     */
+    public static Recipe matchCustomItemRecipe(ItemStack[] matrix){
+        long t = CUIMetrics.start();
+        try{
+            return matrix == null ? null : CUIRecipeIndex.get().match(matrix);
+        }
+        finally{
+            CUIMetrics.end("matchCustomItemRecipe", t);
+        }
+    }
 
     /*
     *
@@ -176,10 +363,76 @@ public class CustomItemsAPI{
      * @return the ID of the Custom Item of the block, or null if the block is not Custom
      */
     public static String getCustomItemIDAtBlock(Block block){
-        CustomItem ci = CustomItemBlockHandler.get(block.getLocation());
-        return ci == null ? null : ci.getId();
+        return getCustomItemIDAtBlock(block.getWorld(), block.getX(), block.getY(), block.getZ());
+    }
+
+    /**
+     * Get the ID of the Custom Item at the given coordinates. Unlike getCustomItemIDAtBlock(Block), this
+     * does not need a Block, and does not allocate a Location for the lookup.
+     * @param world - the world of the block
+     * @param x - the x coordinate of the block
+     * @param y - the y coordinate of the block
+     * @param z - the z coordinate of the block
+     * @return the ID of the Custom Item of the block, or null if the block is not Custom
+     */
+    public static String getCustomItemIDAtBlock(World world, int x, int y, int z){
+        long t = CUIMetrics.start();
+        try{
+            CustomItem ci = CUIBlockLookup.get(world, x, y, z);
+            return ci == null ? null : ci.getId();
+        }
+        finally{
+            CUIMetrics.end("getCustomItemIDAtBlock", t);
+        }
     }
 
+    /**
+     * Get the ordinal of the Custom Item at the given coordinates. Compare this with CUIItem.getOrdinal() to check for a
+     * specific custom block without comparing IDs.
+     * @param world - the world of the block
+     * @param x - the x coordinate of the block
+     * @param y - the y coordinate of the block
+     * @param z - the z coordinate of the block
+     * @return the ordinal of the Custom Item of the block, or -1 if the block is not Custom
+     */
+    public static int getCustomItemOrdinalAtBlock(World world, int x, int y, int z){
+        long t = CUIMetrics.start();
+        try{
+            return CUIRegistry.ordinal(CUIBlockLookup.get(world, x, y, z));
+        }
+        finally{
+            CUIMetrics.end("getCustomItemOrdinalAtBlock", t);
+        }
+    }
+
+    /**
+     * Get the ordinal of the Custom Item at the given coordinates from any thread. From another thread, this asks the
+     * main thread to look the block up and blocks until it does, or until timeoutMillis has passed. On the main thread,
+     * this is the same as getCustomItemOrdinalAtBlock.
+     * @param world - the world of the block
+     * @param x - the x coordinate of the block
+     * @param y - the y coordinate of the block
+     * @param z - the z coordinate of the block
+     * @param timeoutMillis - how long to wait for the main thread, in milliseconds
+     * @return the ordinal of the Custom Item of the block, -1 if the block is not Custom, or BLOCK_UNKNOWN if it is not
+     * known whether the block is Custom
+     */
+    public static int waitForCustomItemOrdinalAtBlock(World world, int x, int y, int z, long timeoutMillis){
+        long t = CUIMetrics.start();
+        try{
+            return CUIBlockLookup.waitFor(world, x, y, z, timeoutMillis);
+        }
+        finally{
+            CUIMetrics.end("waitForCustomItemOrdinalAtBlock", t);
+        }
+    }
+
+    /**
+     * Returned by waitForCustomItemOrdinalAtBlock when the main thread does not look the block up in time, for example
+     * because the server is busy, or when the plugin is disabled, the waiting thread is interrupted, or the lookup fails
+     */
+    public static final int BLOCK_UNKNOWN = -2;
+
     /**
      * Set the Block to the specified Custom Item. Shorthand for setCustomItemIDAtBlock(block, id, doBlockUpdate, false)
      * @param block - the Block to set
@@ -200,12 +453,54 @@ public class CustomItemsAPI{
      * @return the Block that has been updated, or null if the CustomItem id you provided doesn't exist. If you provide {@code null} for id, this will always return the block
      */
     public static Block setCustomItemIDAtBlock(Block block, String id, boolean doBlockUpdate, boolean caseSensitive){
-        if(id == null){
-            return breakCustomItemAtBlock(block, doBlockUpdate);
+        long t = CUIMetrics.start();
+        try{
+            if(id == null){
+                return breakCustomItemAtBlock(block, doBlockUpdate);
+            }
+            CustomItem ci = CUIRegistry.get(id, caseSensitive);
+            if(ci == null){return null;}
+            CUIBlockFeed.changing(block);
+            return CustomItemBlockHandler.place(block, ci, doBlockUpdate);
+        }
+        finally{
+            CUIMetrics.end("setCustomItemIDAtBlock", t);
+        }
+    }
+
+    /**
+     * Set many blocks to Custom Items at once. Shorthand for setCustomItemIDAtBlocks(ids, doBlockUpdate, false, 0)
+     * @param ids - the blocks to set, and the ID of the Custom Item to set each block to, case-insensitive. Use a null ID to remove the custom block
+     * @param doBlockUpdate - whether or not to do a block update. This should be true in almost all cases.
+     * @return the number of blocks that were changed. Blocks with IDs that don't exist are skipped
+     */
+    public static int setCustomItemIDAtBlocks(Map<Block, String> ids, boolean doBlockUpdate){
+        return setCustomItemIDAtBlocks(ids, doBlockUpdate, false, 0).join();
+    }
+
+    /**
+     * Set many blocks to Custom Items at once. Blocks are written chunk by chunk, and the work can be spread over several
+     * ticks so that large pastes do not freeze the server. Nothing is suppressed or deferred: each block is placed exactly
+     * the way setCustomItemIDAtBlock places it, with its own block update, physics and lighting, so this costs as much per
+     * block as calling setCustomItemIDAtBlock yourself. Cancel the returned future to stop a batch that is spread over
+     * several ticks. Blocks that were already set stay set, and blocks in worlds that are unloaded before they are reached
+     * are skipped.
+     * @param ids - the blocks to set, and the ID of the Custom Item to set each block to. Use a null ID to remove the custom block
+     * @param doBlockUpdate - whether or not to do a block update. This should be true in almost all cases.
+     * @param caseSensitive - set to true to make sure the IDs match case-sensitively
+     * @param maxMillisPerTick - the most time to spend on this per tick. The work is spread over as many ticks as needed.
+     *                         Set this to 0 to set every block right away
+     * @return a future that completes with the number of blocks that were changed once every block has been set.
+     * Blocks with IDs that don't exist are skipped
+     */
+    public static CompletableFuture<Integer> setCustomItemIDAtBlocks(Map<Block, String> ids, boolean doBlockUpdate, boolean caseSensitive, long maxMillisPerTick){
+        long t = CUIMetrics.start();
+        try{
+            return CUIBlockBatch.start(ids, doBlockUpdate, caseSensitive, maxMillisPerTick);
+        }
+        finally{
+            CUIMetrics.end("setCustomItemIDAtBlocks", t);
         }
-        CustomItem ci = CustomItem.get(id, !caseSensitive);
-        if(ci == null){return null;}
-        return CustomItemBlockHandler.place(block, ci, doBlockUpdate);
     }
 
     /**
@@ -215,7 +510,14 @@ public class CustomItemsAPI{
      * @return the block that has been updated, or {@code null} if the block was not placed by CustomItems
      */
     public static Block breakCustomItemAtBlock(Block block, boolean doBlockUpdate){
-        return CustomItemBlockHandler.remove(block, doBlockUpdate);
+        long t = CUIMetrics.start();
+        try{
+            CUIBlockFeed.changing(block);
+            return CustomItemBlockHandler.remove(block, doBlockUpdate);
+        }
+        finally{
+            CUIMetrics.end("breakCustomItemAtBlock", t);
+        }
     }
 
     /**
@@ -257,24 +559,104 @@ public class CustomItemsAPI{
      *          The second entry is a list of the items that the block would have normally dropped. This will be empty if the first entry is false
      */
     public static AbstractMap.SimpleEntry<Boolean, List<ItemStack>> breakCustomItemBlockWithoutDrops(Block block, Player player, boolean doBlockUpdate, boolean override){
-        CustomItem ci = CustomItemBlockHandler.get(block.getLocation());
-        if(ci == null){return null;}
-        GenericItem gi = new GenericItem(ci, 1);
+        long t = CUIMetrics.start();
+        try{
+            CustomItem ci = CUIBlockLookup.get(block);
+            if(ci == null){return null;}
+            GenericItem gi = new GenericItem(ci, 1);
 
-        BlockBreakEvent e = new BlockBreakEvent(block, player);
-        List<ItemStack> list = GenericItemActionHandler.handleBlockMineReturningDrops(e, gi);
-        boolean cancelled = !override && e.isCancelled();
+            BlockBreakEvent e = new BlockBreakEvent(block, player);
+            List<ItemStack> list = GenericItemActionHandler.handleBlockMineReturningDrops(e, gi);
+            boolean cancelled = !override && e.isCancelled();
 
-        if(cancelled){
-            list = new ArrayList<>();
+            if(cancelled){
+                list = new ArrayList<>();
+            }
+            else{
+                breakCustomItemAtBlock(block, doBlockUpdate);
+            }
+
+            return new AbstractMap.SimpleEntry<>(!cancelled, list);
         }
-        else{
-            CustomItemBlockHandler.remove(block, doBlockUpdate);
+        finally{
+            CUIMetrics.end("breakCustomItemBlockWithoutDrops", t);
         }
+    }
+
 
-        return new AbstractMap.SimpleEntry<>(!cancelled, list);
+    /**
+     * Break many blocks at once, and return the drops instead of dropping them normally. The custom blocks are removed
+     * chunk by chunk once every block break has been handled, and identical drops are merged into full stacks.
+     * @param blocks - the blocks that should be broken. Blocks that are not custom blocks are left alone. A block that is
+     * given more than once is only broken, and only drops, the first time. Its later copies are reported as neither
+     * custom nor broken
+     * @param player - the player that broke the blocks
+     * @param doBlockUpdate - whether or not this should trigger a block update
+     * @param override - false by default. Set this to true if you want to override CustomItem's decision to cancel the block breaks
+     * @return which blocks were custom, which of them were broken, and the merged drops of the broken blocks
+     */
+    public static CUIBlockBreakResult breakCustomItemBlocksWithoutDrops(Collection<Block> blocks, Player player, boolean doBlockUpdate, boolean override){
+        long t = CUIMetrics.start();
+        try{
+            Block[] array = blocks.toArray(new Block[0]);
+            BitSet custom = new BitSet(array.length);
+            BitSet broken = new BitSet(array.length);
+            List<ItemStack> drops = new ArrayList<>();
+            List<Block> remove = new ArrayList<>();
+            Map<CustomItem, GenericItem> genericItems = new IdentityHashMap<>();
+            Set<Block> seen = new HashSet<>();
+
+            for(int i = 0; i < array.length; i++){
+                Block block = array[i];
+                // the block is only removed after the loop, so a repeat would still be custom and drop its items again
+                if(!seen.add(block)){continue;}
+
+                CustomItem ci = CUIBlockLookup.get(block);
+                if(ci == null){continue;}
+                custom.set(i);
+
+                GenericItem gi = genericItems.computeIfAbsent(ci, k -> new GenericItem(k, 1));
+                BlockBreakEvent e = new BlockBreakEvent(block, player);
+                List<ItemStack> list = GenericItemActionHandler.handleBlockMineReturningDrops(e, gi);
+                if(!override && e.isCancelled()){continue;}
+
+                broken.set(i);
+                remove.add(block);
+                if(list != null){
+                    for(ItemStack drop : list){
+                        mergeDrop(drops, drop);
+                    }
+                }
+            }
+
+            CUIBlockBatch.removeAll(remove, doBlockUpdate);
+            return new CUIBlockBreakResult(array, custom, broken, drops);
+        }
+        finally{
+            CUIMetrics.end("breakCustomItemBlocksWithoutDrops", t);
+        }
     }
 
+    private static void mergeDrop(List<ItemStack> drops, ItemStack drop){
+        if(drop == null || drop.getAmount() <= 0){return;}
+        int amount = drop.getAmount();
+        for(ItemStack stack : drops){
+            if(amount == 0){return;}
+            int space = stack.getMaxStackSize() - stack.getAmount();
+            if(space > 0 && stack.isSimilar(drop)){
+                int added = Math.min(space, amount);
+                stack.setAmount(stack.getAmount() + added);
+                amount -= added;
+            }
+        }
+        while(amount > 0){
+            ItemStack stack = drop.clone();
+            int added = Math.min(Math.max(1, stack.getMaxStackSize()), amount);
+            stack.setAmount(added);
+            drops.add(stack);
+            amount -= added;
+        }
+    }
 
     /*
     *
@@ -287,7 +669,13 @@ public class CustomItemsAPI{
      * @return true iff stack is a custom item
      */
     public static boolean isCustomItem(ItemStack stack){
-        return CustomItemHandler.isCustomItem(stack);
+        long t = CUIMetrics.start();
+        try{
+            return CustomItemHandler.isCustomItem(stack);
+        }
+        finally{
+            CUIMetrics.end("isCustomItem", t);
+        }
     }
 
     /**
@@ -308,8 +696,149 @@ public class CustomItemsAPI{
      * @return true iff stack is the Custom Item with the Custom Item ID id.
      */
     public static boolean isCustomItem(ItemStack stack, String id, boolean caseSensitive){
-        String itemID = getCustomItemID(stack);
-        return itemID != null && (!caseSensitive ? itemID.equalsIgnoreCase(id) : itemID.equals(id));
+        long t = CUIMetrics.start();
+        try{
+            String itemID = getCustomItemID(stack);
+            return itemID != null && (!caseSensitive ? itemID.equalsIgnoreCase(id) : itemID.equals(id));
+        }
+        finally{
+            CUIMetrics.end("isCustomItemWithID", t);
+        }
+    }
+
+    /**
+     * Alias for getCustomItemHandle(id, false)
+     * @param id - the Custom Item ID, case-insensitive
+     * @return the interned handle for the Custom Item with the ID id, or null if the Custom Item does not exist
+     */
+    public static CUIItem getCustomItemHandle(String id){
+        return getCustomItemHandle(id, false);
+    }
+
+    /**
+     * Get the interned handle for a Custom Item. There is only ever one handle for each Custom Item ID, and it stays valid
+     * across reloads, so you can resolve it once and keep it. Check it against ItemStacks using isCustomItem(stack, handle)
+     * @param id - the Custom Item ID. Case-sensitive if caseSensitive is true
+     * @param caseSensitive - set to true to make sure the item's ID matches id case-sensitively
+     * @return the interned handle for the Custom Item with the ID id, or null if the Custom Item does not exist
+     */
+    public static CUIItem getCustomItemHandle(String id, boolean caseSensitive){
+        long t = CUIMetrics.start();
+        try{
+            CUIRegistry.Entry entry = CUIRegistry.entry(id, caseSensitive);
+            return entry == null ? null : entry.handle;
+        }
+        finally{
+            CUIMetrics.end("getCustomItemHandle", t);
+        }
+    }
+
+    /**
+     * @param stack - the ItemStack
+     * @return the ordinal of the Custom Item (see CUIItem.getOrdinal()), or -1 if stack is not a Custom Item
+     */
+    public static int getCustomItemOrdinal(ItemStack stack){
+        long t = CUIMetrics.start();
+        try{
+            return CUIRegistry.ordinal(CustomItemHandler.getCustomItem(stack));
+        }
+        finally{
+            CUIMetrics.end("getCustomItemOrdinal", t);
+        }
+    }
+
+    /**
+     * Faster than isCustomItem(stack, id), since no IDs are compared
+     * @param stack - the ItemStack to check
+     * @param item - the Custom Item, usually from getCustomItemHandle(id)
+     * @return true iff stack is the Custom Item item
+     */
+    public static boolean isCustomItem(ItemStack stack, CUIItem item){
+        long t = CUIMetrics.start();
+        try{
+            return item != null && item.isItem(stack);
+        }
+        finally{
+            CUIMetrics.end("isCustomItemWithHandle", t);
+        }
+    }
+
+    /*
+     *
+     * INVENTORIES
+     *
+     */
+
+    /**
+     * Identify every Custom Item in contents in one pass. This is faster than calling getCustomItemID for each slot
+     * when the same item fills several slots in a row, since a stack similar to one of the last few stacks reuses its result.
+     * @param contents - the ItemStacks to check, for example inventory.getContents()
+     * @return an array the same length as contents, holding the Custom Item ID of each slot, or null if the slot is not a Custom Item
+     */
+    public static String[] getCustomItemIDs(ItemStack[] contents){
+        long t = CUIMetrics.start();
+        try{
+            CustomItem[] items = CUIInventoryScanner.identify(contents);
+            String[] result = new String[items.length];
+            for(int i = 0; i < items.length; i++){
+                result[i] = items[i] == null ? null : items[i].getId();
+            }
+            return result;
+        }
+        finally{
+            CUIMetrics.end("getCustomItemIDs", t);
+        }
+    }
+
+    /**
+     * Count every Custom Item in contents in one pass
+     * @param contents - the ItemStacks to check, for example inventory.getContents()
+     * @return a map from each Custom Item ID found in contents to the total amount of that item
+     */
+    public static Map<String, Integer> countCustomItems(ItemStack[] contents){
+        long t = CUIMetrics.start();
+        try{
+            return CUIInventoryScanner.count(contents);
+        }
+        finally{
+            CUIMetrics.end("countCustomItems", t);
+        }
+    }
+
+    /**
+     * Count every Custom Item in the inventory in one pass. Alias for countCustomItems(inventory.getContents())
+     * @param inventory - the inventory to check
+     * @return a map from each Custom Item ID found in the inventory to the total amount of that item
+     */
+    public static Map<String, Integer> countCustomItems(Inventory inventory){
+        return countCustomItems(inventory.getContents());
+    }
+
+    /**
+     * Alias for countCustomItem(inventory, id, false)
+     * @param inventory - the inventory to check
+     * @param id - the Custom Item ID, case-insensitive
+     * @return the total amount of the Custom Item with the ID id in the inventory
+     */
+    public static int countCustomItem(Inventory inventory, String id){
+        return countCustomItem(inventory, id, false);
+    }
+
+    /**
+     * @param inventory - the inventory to check
+     * @param id - the Custom Item ID. Case-sensitive if caseSensitive is true
+     * @param caseSensitive - set to true to make sure the stack's ID matches id case-sensitively
+     * @return the total amount of the Custom Item with the ID id in the inventory, or 0 if the Custom Item does not exist
+     */
+    public static int countCustomItem(Inventory inventory, String id, boolean caseSensitive){
+        long t = CUIMetrics.start();
+        try{
+            CustomItem ci = CUIRegistry.get(id, caseSensitive);
+            return ci == null ? 0 : CUIInventoryScanner.count(inventory.getContents(), ci);
+        }
+        finally{
+            CUIMetrics.end("countCustomItem", t);
+        }
     }
 
     /*
@@ -325,7 +854,13 @@ public class CustomItemsAPI{
      * Returns {@code null} if the stack is not a CustomItem
      */
     public static Integer getCustomItemDamage(ItemStack stack){
-        return CustomItemDamageHandler.tryGetDurability(stack);
+        long t = CUIMetrics.start();
+        try{
+            return CustomItemDamageHandler.tryGetDurability(stack);
+        }
+        finally{
+            CUIMetrics.end("getCustomItemDamage", t);
+        }
     }
 
     /**
@@ -334,8 +869,42 @@ public class CustomItemsAPI{
      * @return the maximum possible damage on the ItemStack before it breaks. Returns {@code null} if the stack is not a CustomItem
      */
     public static Integer getCustomItemMaxDamage(ItemStack stack){
-        if(!CustomItemHandler.isCustomItem(stack)){return null;}
-        return CustomItemDamageHandler.getMaxDurability(stack);
+        long t = CUIMetrics.start();
+        try{
+            if(!CustomItemHandler.isCustomItem(stack)){return null;}
+            return CustomItemDamageHandler.getMaxDurability(stack);
+        }
+        finally{
+            CUIMetrics.end("getCustomItemMaxDamage", t);
+        }
+    }
+
+    /**
+     * Read the Custom Item ID, damage and maximum damage of a stack at once, into a view that can be reused for every call.
+     * CustomItems still reads the stack once for the ID, once for the damage and once for the maximum damage, so this only
+     * saves the isCustomItem checks that getCustomItemDamage and getCustomItemMaxDamage each make.
+     * @param stack the ItemStack to check
+     * @param view the view to fill in. Any previous values are replaced
+     * @return true iff the stack is a CustomItem. If this is false, view is cleared
+     */
+    public static boolean readCustomItemDurability(ItemStack stack, CUIDurabilityView view){
+        long t = CUIMetrics.start();
+        try{
+            CustomItem ci = stack == null ? null : CustomItemHandler.getCustomItem(stack);
+            if(ci == null){
+                view.clear();
+                return false;
+            }
+
+            CUIRegistry.Entry entry = CUIRegistry.entry(ci);
+            Integer damage = CustomItemDamageHandler.tryGetDurability(stack);
+            Integer max = CustomItemDamageHandler.getMaxDurability(stack);
+            view.set(ci.getId(), entry == null ? -1 : entry.ordinal, damage, max);
+            return true;
+        }
+        finally{
+            CUIMetrics.end("readCustomItemDurability", t);
+        }
     }
 
     /**
@@ -348,11 +917,83 @@ public class CustomItemsAPI{
      * newly damaged ItemStack otherwise.
      */
     public static ItemStack setCustomItemDamage(ItemStack stack, int amount){
-        DoubleTuple<Boolean, ItemStack> dt = CustomItemDamageHandler.trySetDamage(stack, amount);
-        if(!dt.val1()){return null;}
-        ItemStack res = dt.val2();
-        if(res == null){return SafeMaterial.AIR.parseItem();}
-        return res;
+        long t = CUIMetrics.start();
+        try{
+            DoubleTuple<Boolean, ItemStack> dt = CustomItemDamageHandler.trySetDamage(stack, amount);
+            if(!dt.val1()){return null;}
+            ItemStack res = dt.val2();
+            if(res == null){return SafeMaterial.AIR.parseItem();}
+            return res;
+        }
+        finally{
+            CUIMetrics.end("setCustomItemDamage", t);
+        }
+    }
+
+    /**
+     * Returned by addCustomArmorDamage for a slot that does not hold a CustomItem. The slot is not changed
+     */
+    public static final int DAMAGE_NOT_CUSTOM_ITEM = -1;
+    /**
+     * Returned by addCustomArmorDamage for a slot holding a CustomItem that can not be damaged. The slot is not changed
+     */
+    public static final int DAMAGE_NOT_DAMAGEABLE = 0;
+    /**
+     * Returned by addCustomArmorDamage for a slot whose damage was set
+     */
+    public static final int DAMAGE_SET = 1;
+    /**
+     * Returned by addCustomArmorDamage for a slot whose item broke. The slot is emptied
+     */
+    public static final int DAMAGE_BROKEN = 2;
+
+    /**
+     * Add damage to every CustomItem the player is wearing, and update the player's armor once at the end
+     * @param player the player whose armor should be damaged
+     * @param amount the damage to add to each piece of armor
+     * @return DAMAGE_NOT_CUSTOM_ITEM, DAMAGE_NOT_DAMAGEABLE, DAMAGE_SET or DAMAGE_BROKEN for each armor slot,
+     * in the same order as PlayerInventory.getArmorContents()
+     */
+    public static int[] addCustomArmorDamage(Player player, int amount){
+        long t = CUIMetrics.start();
+        try{
+            PlayerInventory inventory = player.getInventory();
+            ItemStack[] armor = inventory.getArmorContents();
+            int[] result = new int[armor.length];
+            boolean changed = false;
+
+            for(int i = 0; i < armor.length; i++){
+                Integer damage = armor[i] == null ? null : CustomItemDamageHandler.tryGetDurability(armor[i]);
+                if(damage == null){
+                    result[i] = DAMAGE_NOT_CUSTOM_ITEM;
+                    continue;
+                }
+
+                DoubleTuple<Boolean, ItemStack> dt = CustomItemDamageHandler.trySetDamage(armor[i], damage + amount);
+                if(!dt.val1()){
+                    result[i] = DAMAGE_NOT_CUSTOM_ITEM;
+                    continue;
+                }
+
+                // the damaged stack goes straight back into the armor array, so nothing is copied onto the old stack
+                ItemStack res = dt.val2();
+                if(res == armor[i]){
+                    result[i] = DAMAGE_NOT_DAMAGEABLE;
+                    continue;
+                }
+                result[i] = res == null ? DAMAGE_BROKEN : DAMAGE_SET;
+                armor[i] = res;
+                changed = true;
+            }
+
+            if(changed){
+                inventory.setArmorContents(armor);
+            }
+            return result;
+        }
+        finally{
+            CUIMetrics.end("addCustomArmorDamage", t);
+        }
     }
 
     /*
@@ -377,8 +1018,14 @@ public class CustomItemsAPI{
      * @return The friendly name of the Custom Item with the ID id
      */
     public static String getCustomItemFriendlyName(String id, boolean caseSensitive){
-        CustomItem ci = CustomItem.get(id, !caseSensitive);
-        return ci == null ? null : ci.getItemName();
+        long t = CUIMetrics.start();
+        try{
+            CustomItem ci = CUIRegistry.get(id, caseSensitive);
+            return ci == null ? null : ci.getItemName();
+        }
+        finally{
+            CUIMetrics.end("getCustomItemFriendlyName", t);
+        }
     }
 
 }